@@ -0,0 +1,71 @@
+package benchmarks;
+
+import map.FightSimulator;
+import map.Room;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import things.Critter;
+import things.Explorer;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fighting a critter to the end, and every critter on a map
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FightBenchmark {
+    // Health of the critter being fought (the explorer always wins)
+    @Param({"10", "1000", "100000"})
+    public int critterHealth;
+
+    /**
+     * Fight a fresh critter with a fresh explorer
+     *
+     * @return explorer's health afterwards
+     */
+    @Benchmark
+    public int fight() {
+        Explorer explorer = new Explorer("explorer", "a brave explorer",
+                critterHealth * 3);
+        explorer.fight(new Critter("rat", "a hungry rat", 1, critterHealth));
+        return explorer.getHealth();
+    }
+
+    /**
+     * A map full of critters
+     */
+    @State(Scope.Benchmark)
+    public static class CritterMap {
+        // Start room of an item dense grid
+        Room start;
+
+        /**
+         * Build the map once per trial
+         */
+        @Setup
+        public void setUp() {
+            start = Maps.build(Maps.Shape.ITEM_DENSE, 10000);
+        }
+    }
+
+    /**
+     * Work out a fight against every critter on the map
+     *
+     * @param map the map
+     * @return the results
+     */
+    @Benchmark
+    public List<FightSimulator.Result> simulateMap(CritterMap map) {
+        return FightSimulator.simulate(map.start, new Explorer("explorer",
+                "a brave explorer", critterHealth * 3));
+    }
+}
@@ -0,0 +1,203 @@
+package benchmarks;
+
+import map.MapIO;
+import map.MapJournal;
+import map.MapValidator;
+import map.Room;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import things.Treasure;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Saving and loading maps in each format
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MapIOBenchmark {
+    // Shape of the map
+    @Param({"GRID", "SPIRAL", "ITEM_DENSE"})
+    public Maps.Shape shape;
+
+    // Number of rooms
+    @Param({"10000"})
+    public int rooms;
+
+    // Start room of the map
+    private Room start;
+    // Files holding the map in each format (read by the load benchmarks)
+    private File textFile;
+    private File compressedFile;
+    private File binaryFile;
+    // File the save benchmarks write to
+    private File scratchFile;
+    // Journal of the map, and a treasure moved between two rooms before
+    // each journaled save
+    private File journalFile;
+    private MapJournal journal;
+    private Treasure treasure;
+    private Room[] treasureRooms;
+    private int moves;
+
+    /**
+     * Build the map and save it once per trial
+     *
+     * @throws IOException if the temporary files can not be created
+     */
+    @Setup
+    public void setUp() throws IOException {
+        start = Maps.build(shape, rooms);
+        textFile = File.createTempFile("crawl", ".map");
+        compressedFile = File.createTempFile("crawl",
+                ".map" + MapIO.COMPRESSED_EXTENSION);
+        binaryFile = File.createTempFile("crawl", ".bmap");
+        scratchFile = File.createTempFile("crawl", ".tmp");
+        if (!MapIO.saveMap(start, textFile.getPath())
+                || !MapIO.saveMap(start, compressedFile.getPath())
+                || !MapIO.saveBinaryMap(start, binaryFile.getPath())) {
+            throw new IOException("Unable to save benchmark map");
+        }
+        journalFile = File.createTempFile("crawl", MapJournal.EXTENSION);
+        journal = MapJournal.create(start, journalFile.getPath());
+        if (journal == null) {
+            throw new IOException("Unable to save benchmark journal");
+        }
+        treasure = new Treasure("trinket", 1);
+        treasureRooms = new Room[]{start,
+                start.getExits().values().iterator().next()};
+        start.enter(treasure);
+    }
+
+    /**
+     * Remove the temporary files
+     */
+    @TearDown
+    public void tearDown() {
+        textFile.delete();
+        compressedFile.delete();
+        binaryFile.delete();
+        scratchFile.delete();
+        journal.close();
+        journalFile.delete();
+    }
+
+    /**
+     * Save in the text format
+     *
+     * @return true if saved
+     */
+    @Benchmark
+    public boolean saveText() {
+        return MapIO.saveMap(start, scratchFile.getPath());
+    }
+
+    /**
+     * Save in the text format, compressed at the fastest level
+     *
+     * @return true if saved
+     */
+    @Benchmark
+    public boolean saveCompressed() {
+        return MapIO.saveMap(start, scratchFile.getPath(),
+                Deflater.BEST_SPEED);
+    }
+
+    /**
+     * Save in the binary format
+     *
+     * @return true if saved
+     */
+    @Benchmark
+    public boolean saveBinary() {
+        return MapIO.saveBinaryMap(start, scratchFile.getPath());
+    }
+
+    /**
+     * Move one treasure, then save the change to a journal (including
+     * the occasional rewrite of the whole journal)
+     *
+     * @return true if saved
+     */
+    @Benchmark
+    public boolean saveJournal() {
+        Room.move(treasure, treasureRooms[moves % 2],
+                treasureRooms[(moves + 1) % 2]);
+        moves++;
+        return journal.save();
+    }
+
+    /**
+     * Load the text format
+     *
+     * @return loaded explorer and start room
+     */
+    @Benchmark
+    public Object[] loadText() {
+        return MapIO.loadMap(textFile.getPath());
+    }
+
+    /**
+     * Load the compressed text format
+     *
+     * @return loaded explorer and start room
+     */
+    @Benchmark
+    public Object[] loadCompressed() {
+        return MapIO.loadMap(compressedFile.getPath());
+    }
+
+    /**
+     * Check the text format without loading it
+     *
+     * @return problems found (none)
+     */
+    @Benchmark
+    public List<MapValidator.Violation> validateText() {
+        return MapValidator.validate(textFile.getPath());
+    }
+
+    /**
+     * Load the binary format
+     *
+     * @return loaded explorer and start room
+     */
+    @Benchmark
+    public Object[] loadBinary() {
+        return MapIO.loadBinaryMap(binaryFile.getPath());
+    }
+
+    /**
+     * Load a journal, replaying the changes saved since its snapshot
+     *
+     * @return the journal
+     */
+    @Benchmark
+    public MapJournal loadJournal() {
+        MapJournal loaded = MapJournal.open(journalFile.getPath());
+        loaded.close();
+        return loaded;
+    }
+
+    /**
+     * Open the binary format lazily (only the start room is built)
+     *
+     * @return loaded explorer and start room
+     */
+    @Benchmark
+    public Object[] loadMapped() {
+        return MapIO.loadMappedMap(binaryFile.getPath());
+    }
+}
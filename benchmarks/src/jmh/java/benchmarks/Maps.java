@@ -0,0 +1,161 @@
+package benchmarks;
+
+import exceptions.ExitExistsException;
+import exceptions.NullRoomException;
+import map.Room;
+import things.Critter;
+import things.Explorer;
+import things.Treasure;
+
+/**
+ * Synthetic maps of a given size and shape for benchmarks.
+ * Every map has its explorer in the start room.
+ */
+public final class Maps {
+    /**
+     * Map shapes (public so JMH generated code can set @Param fields)
+     */
+    public enum Shape {
+        // A single east-west line of rooms
+        CORRIDOR,
+        // A square grid, every room linked to its four neighbours
+        GRID,
+        // A square spiral winding outwards (like maps/spiral.map)
+        SPIRAL,
+        // A square grid where every room holds many things
+        ITEM_DENSE
+    }
+
+    // Things in each room of an ITEM_DENSE map
+    static final int ITEMS_PER_DENSE_ROOM = 20;
+
+    /**
+     * Not instantiable
+     */
+    private Maps() {
+    }
+
+    /**
+     * Build a map
+     *
+     * @param shape shape of the map
+     * @param rooms (approximate) number of rooms
+     * @return start room
+     */
+    static Room build(Shape shape, int rooms) {
+        try {
+            Room start;
+            switch (shape) {
+                case CORRIDOR:
+                    start = corridor(rooms);
+                    break;
+                case SPIRAL:
+                    start = spiral(rooms);
+                    break;
+                case ITEM_DENSE:
+                    start = grid(rooms, ITEMS_PER_DENSE_ROOM);
+                    break;
+                default:
+                    start = grid(rooms, 0);
+            }
+            start.enter(new Explorer("explorer", "a brave explorer", 10));
+            return start;
+        } catch (ExitExistsException | NullRoomException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Give a room a mix of treasure and critters
+     *
+     * @param room  room to fill
+     * @param items number of things to add
+     */
+    private static void fill(Room room, int items) {
+        for (int i = 0; i < items; i++) {
+            if (i % 3 == 0) {
+                room.enter(new Critter("rat" + i % 5, "a hungry rat",
+                        i * 0.5, 3));
+            } else {
+                room.enter(new Treasure("coin" + i % 7, i * 1.25));
+            }
+        }
+    }
+
+    /**
+     * Build a corridor running east from the start
+     *
+     * @param rooms number of rooms
+     * @return start room
+     */
+    private static Room corridor(int rooms) throws ExitExistsException,
+            NullRoomException {
+        Room start = new Room("the start");
+        Room previous = start;
+        for (int i = 1; i < rooms; i++) {
+            Room room = new Room("an empty room");
+            Room.makeExitPair(previous, room, "East", "West");
+            previous = room;
+        }
+        return start;
+    }
+
+    /**
+     * Build a square grid with the start in the north west corner
+     *
+     * @param rooms number of rooms (rounded down to a square)
+     * @param items things in each room
+     * @return start room
+     */
+    private static Room grid(int rooms, int items) throws ExitExistsException,
+            NullRoomException {
+        int side = Math.max(1, (int) Math.sqrt(rooms));
+        Room[] grid = new Room[side * side];
+        for (int i = 0; i < grid.length; i++) {
+            grid[i] = new Room(i % 10 == 0 ? "a room" : "an empty room");
+            fill(grid[i], items);
+        }
+        for (int y = 0; y < side; y++) {
+            for (int x = 0; x < side; x++) {
+                Room room = grid[y * side + x];
+                if (x + 1 < side) {
+                    Room.makeExitPair(room, grid[y * side + x + 1],
+                            "East", "West");
+                }
+                if (y + 1 < side) {
+                    Room.makeExitPair(room, grid[(y + 1) * side + x],
+                            "South", "North");
+                }
+            }
+        }
+        return grid[0];
+    }
+
+    /**
+     * Build a spiral winding clockwise out from the start
+     *
+     * @param rooms number of rooms
+     * @return start room
+     */
+    private static Room spiral(int rooms) throws ExitExistsException,
+            NullRoomException {
+        String[] directions = {"East", "South", "West", "North"};
+        String[] opposites = {"West", "North", "East", "South"};
+        Room start = new Room("the start");
+        Room previous = start;
+        int made = 1;
+        int direction = 0;
+        // Arm lengths go 1, 1, 2, 2, 3, 3, ...
+        for (int arm = 2; made < rooms; arm++) {
+            for (int i = 0; i < arm / 2 && made < rooms; i++) {
+                Room room = new Room("an empty room");
+                Room.makeExitPair(previous, room, directions[direction],
+                        opposites[direction]);
+                previous = room;
+                made++;
+            }
+            direction = (direction + 1) % 4;
+        }
+        return start;
+    }
+}
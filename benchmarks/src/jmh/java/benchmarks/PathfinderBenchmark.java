@@ -0,0 +1,93 @@
+package benchmarks;
+
+import map.Pathfinder;
+import map.Room;
+import map.RoomIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finding routes between random rooms, with and without the route cache
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PathfinderBenchmark {
+    // Number of (from, to) pairs cycled through
+    private static final int PAIRS = 256;
+
+    // Shape of the map
+    @Param({"GRID", "SPIRAL"})
+    public Maps.Shape shape;
+
+    // Number of rooms
+    @Param({"10000", "250000"})
+    public int rooms;
+
+    // How to search
+    @Param({"BREADTH_FIRST", "BIDIRECTIONAL", "A_STAR"})
+    public Pathfinder.Strategy strategy;
+
+    // Pathfinders with and without a cache
+    private Pathfinder cached;
+    private Pathfinder uncached;
+    // Rooms to route between
+    private Room[] from;
+    private Room[] to;
+    // Next pair to use
+    private int next;
+
+    /**
+     * Build the map, index it and pick the pairs once per trial
+     */
+    @Setup
+    public void setUp() {
+        Room start = Maps.build(shape, rooms);
+        RoomIndex index = new RoomIndex(start);
+        index.walk();
+        Random random = new Random(1);
+        from = new Room[PAIRS];
+        to = new Room[PAIRS];
+        for (int i = 0; i < PAIRS; i++) {
+            from[i] = index.getRoom(random.nextInt(index.size()));
+            to[i] = index.getRoom(random.nextInt(index.size()));
+        }
+        cached = new Pathfinder(start, PAIRS);
+        uncached = new Pathfinder(start, 0);
+        // Index now rather than in the first measured call
+        cached.route(start, start);
+        uncached.route(start, start);
+    }
+
+    /**
+     * Find a route (searching every time)
+     *
+     * @return the route
+     */
+    @Benchmark
+    public List<Room> search() {
+        next = (next + 1) % PAIRS;
+        return uncached.route(from[next], to[next], strategy);
+    }
+
+    /**
+     * Find a route which is (after the first few calls) cached
+     *
+     * @return the route
+     */
+    @Benchmark
+    public List<Room> cachedRoute() {
+        next = (next + 1) % PAIRS;
+        return cached.route(from[next], to[next], strategy);
+    }
+}
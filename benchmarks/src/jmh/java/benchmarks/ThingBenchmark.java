@@ -0,0 +1,92 @@
+package benchmarks;
+
+import map.MapIO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import things.Critter;
+import things.Explorer;
+import things.Thing;
+import things.Treasure;
+import utils.Descriptions;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding things from their text form, and cleaning descriptions
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ThingBenchmark {
+    // Encoded things, as found in a map file
+    private static final String EXPLORER = "E;10;explorer;a brave explorer";
+    private static final String TREASURE = "$;12.50000;golden chalice";
+    private static final String CRITTER = "C;3.25000;7;rat;a hungry rat";
+    // Descriptions with nothing to replace, and with separators
+    private static final String CLEAN = "a long and winding corridor";
+    private static final String DIRTY = "a long;winding\ncorridor";
+
+    /**
+     * Decode an explorer
+     *
+     * @return decoded explorer
+     */
+    @Benchmark
+    public Explorer decodeExplorer() {
+        return Explorer.decode(EXPLORER);
+    }
+
+    /**
+     * Decode a treasure
+     *
+     * @return decoded treasure
+     */
+    @Benchmark
+    public Treasure decodeTreasure() {
+        return Treasure.decode(TREASURE);
+    }
+
+    /**
+     * Decode a critter
+     *
+     * @return decoded critter
+     */
+    @Benchmark
+    public Critter decodeCritter() {
+        return Critter.decode(CRITTER);
+    }
+
+    /**
+     * Decode an item line through MapIO (type lookup then decode)
+     *
+     * @return decoded thing
+     */
+    @Benchmark
+    public Thing decodeThing() {
+        return MapIO.decodeThing(CRITTER);
+    }
+
+    /**
+     * Clean a description which has nothing to replace
+     *
+     * @return cleaned description
+     */
+    @Benchmark
+    public String sanitizeClean() {
+        return Descriptions.sanitize(CLEAN);
+    }
+
+    /**
+     * Clean a description with separators in it
+     *
+     * @return cleaned description
+     */
+    @Benchmark
+    public String sanitizeDirty() {
+        return Descriptions.sanitize(DIRTY);
+    }
+}
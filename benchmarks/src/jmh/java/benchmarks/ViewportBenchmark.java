@@ -0,0 +1,78 @@
+package benchmarks;
+
+import map.BoundsMapper;
+import map.Room;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The lookups the map view makes: finding the rooms inside a window
+ * of the map. (Drawing itself needs a JavaFX toolkit so is not measured)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ViewportBenchmark {
+    // Rooms visible across and down a 900x600 viewport at 30 pixels a room
+    private static final int VIEW_WIDTH = 30;
+    private static final int VIEW_HEIGHT = 20;
+
+    // Number of rooms
+    @Param({"10000", "1000000"})
+    public int rooms;
+
+    // Laid out map
+    private BoundsMapper mapper;
+    // Viewport position for the next query
+    private int step;
+
+    /**
+     * Build and lay out a grid map once per trial
+     */
+    @Setup
+    public void setUp() {
+        mapper = new BoundsMapper(Maps.build(Maps.Shape.GRID, rooms));
+        mapper.walk();
+    }
+
+    /**
+     * Find every room in the viewport, moving it a little each time
+     *
+     * @return number of rooms found
+     */
+    @Benchmark
+    public int roomsInView() {
+        int width = mapper.xMax - mapper.xMin + 1;
+        int height = mapper.yMax - mapper.yMin + 1;
+        step = (step + 7) % Math.max(1, Math.min(width, height));
+        int found = 0;
+        for (int y = step; y < step + VIEW_HEIGHT; y++) {
+            for (int x = step; x < step + VIEW_WIDTH; x++) {
+                Room room = mapper.getRoomAt(mapper.xMin + x, mapper.yMin + y);
+                if (room != null) {
+                    found++;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Look up the coordinates of a room (as done when redrawing it)
+     *
+     * @return x coordinate
+     */
+    @Benchmark
+    public int coordOfRoom() {
+        step = (step + 7919) % mapper.size();
+        return mapper.getCoord(mapper.getRoom(step)).x;
+    }
+}
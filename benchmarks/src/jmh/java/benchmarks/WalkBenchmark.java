@@ -0,0 +1,128 @@
+package benchmarks;
+
+import map.BoundsMapper;
+import map.MapGraph;
+import map.MapWalker;
+import map.Room;
+import map.RoomIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole map traversal: MapWalker, RoomIndex, BoundsMapper and MapGraph
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class WalkBenchmark {
+    // Shape of the map
+    @Param({"CORRIDOR", "GRID", "SPIRAL"})
+    public Maps.Shape shape;
+
+    // Number of rooms
+    @Param({"1000", "200000"})
+    public int rooms;
+
+    // Start room of the map
+    private Room start;
+    // Flat copy of the map
+    private MapGraph graph;
+
+    /**
+     * Build the map (and its flat copy) once per trial
+     */
+    @Setup
+    public void setUp() {
+        start = Maps.build(shape, rooms);
+        graph = new MapGraph(start);
+    }
+
+    /**
+     * Plain breadth first walk
+     *
+     * @return walker (so the walk is not optimised away)
+     */
+    @Benchmark
+    public MapWalker walk() {
+        MapWalker walker = new MapWalker(start);
+        walker.walk();
+        return walker;
+    }
+
+    /**
+     * Plain depth first walk
+     *
+     * @return walker (so the walk is not optimised away)
+     */
+    @Benchmark
+    public MapWalker walkDepthFirst() {
+        MapWalker walker = new MapWalker(start, MapWalker.Order.DEPTH_FIRST);
+        walker.walk();
+        return walker;
+    }
+
+    /**
+     * Number every room
+     *
+     * @return number of rooms found
+     */
+    @Benchmark
+    public int roomIndex() {
+        RoomIndex index = new RoomIndex(start);
+        index.walk();
+        return index.size();
+    }
+
+    /**
+     * Lay out every room one at a time
+     *
+     * @return width of the map
+     */
+    @Benchmark
+    public int boundsMapper() {
+        BoundsMapper mapper = new BoundsMapper(start);
+        mapper.walk();
+        return mapper.xMax - mapper.xMin;
+    }
+
+    /**
+     * Lay out every room on the common ForkJoin pool
+     *
+     * @return width of the map
+     */
+    @Benchmark
+    public int boundsMapperParallel() {
+        BoundsMapper mapper = new BoundsMapper(start);
+        mapper.walkParallel();
+        return mapper.xMax - mapper.xMin;
+    }
+
+    /**
+     * Copy every room into a MapGraph
+     *
+     * @return number of exits copied
+     */
+    @Benchmark
+    public int mapGraph() {
+        return new MapGraph(start).exitCount();
+    }
+
+    /**
+     * Breadth first search of the whole flat copy
+     *
+     * @return exits to the last room
+     */
+    @Benchmark
+    public int graphDistances() {
+        int[] distances = graph.distances(0);
+        return distances[distances.length - 1];
+    }
+}
@@ -0,0 +1,315 @@
+package game;
+
+import map.MapIO;
+import map.MapJournal;
+import map.MapSnapshot;
+import map.Room;
+import things.Critter;
+import things.Explorer;
+import things.Thing;
+import utils.Lootable;
+import utils.Progress;
+
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * One player's game: the rules for moving around a map, looking at,
+ * taking, dropping and fighting things. Has no user interface; each
+ * action returns the message to show the player.
+ * <p>
+ * A session is not thread safe. SessionEngine runs the actions of each
+ * session one at a time. Sessions on the same map share its rooms (which
+ * are thread safe), so many explorers can play in one map at once.
+ */
+public class Session {
+    // The start room
+    private final Room start;
+
+    // The player
+    private final Explorer player;
+
+    // The current room that the player is in
+    private Room currentRoom;
+
+    // Checking whether the game is over (i.e. the player dies)
+    private boolean gameOver;
+
+    // Told about each room whose contents change
+    private Consumer<Room> roomListener;
+
+    // Journal the map is saved to (null until the first journaled save)
+    private MapJournal journal;
+
+    /**
+     * Constructor. Puts the player into the start room.
+     *
+     * @param start  the start room
+     * @param player the player
+     */
+    public Session(Room start, Explorer player) {
+        this.start = start;
+        this.player = player;
+        start.enter(player);
+        currentRoom = start;
+        gameOver = false;
+        roomListener = room -> {
+        };
+    }
+
+    /**
+     * Get the start room
+     *
+     * @return the start room
+     */
+    public Room getStart() {
+        return start;
+    }
+
+    /**
+     * Get the player
+     *
+     * @return the player
+     */
+    public Explorer getPlayer() {
+        return player;
+    }
+
+    /**
+     * Get the room the player is in
+     *
+     * @return the current room
+     */
+    public Room getCurrentRoom() {
+        return currentRoom;
+    }
+
+    /**
+     * Check whether the game is over.
+     *
+     * @return True if the player dies
+     */
+    public boolean isGameOver() {
+        return gameOver;
+    }
+
+    /**
+     * Set what to tell when a room's contents change (e.g. to redraw it)
+     *
+     * @param listener called with each changed room
+     */
+    public void setRoomListener(Consumer<Room> listener) {
+        roomListener = listener;
+    }
+
+    /**
+     * Set the journal later saves to its file should add to (e.g. the one
+     * the map was loaded from)
+     *
+     * @param journal the journal
+     */
+    public void setJournal(MapJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Let the player enter an adjacent room
+     *
+     * @param exit The exit name
+     * @return Sentence to be displayed in message area.
+     */
+    public String enterRoom(String exit) {
+        Room next = currentRoom.getExit(exit);
+        // No exit in the specified direction
+        if (next == null) {
+            return "No door that way";
+        }
+        // The player cannot leave
+        if (!Room.move(player, currentRoom, next)) {
+            return "Something prevents you from leaving";
+        }
+        roomListener.accept(currentRoom);
+        currentRoom = next;
+        roomListener.accept(currentRoom);
+        return "You enter " + currentRoom.getDescription();
+    }
+
+    /**
+     * Display description of each room, its contents,
+     * and items that the player is carrying now
+     *
+     * @return information to display
+     */
+    public String look() {
+        StringBuilder string = new StringBuilder();
+        for (Thing thing : currentRoom.getContents()) {
+            // Short descriptions of each Thing in the room
+            string.append(" ").append(thing.getShortDescription()).append("\n");
+        }
+        string.append("You are carrying:\n");
+        for (Thing thing : player.getContents()) {
+            // Short descriptions of each Thing the player is carrying
+            string.append(" ").append(thing.getShortDescription()).append("\n");
+        }
+        // Total item values. Formatted for one decimal place.
+        string.append(String.format("worth %.1f in total\n",
+                player.getInventoryValue()));
+        return currentRoom.getDescription() + " - you see: \n" + string;
+    }
+
+    /**
+     * Describe a Thing the player is carrying or can see
+     *
+     * @param name short description of the Thing
+     * @return Item's long description or
+     * "Nothing found with that name" if no matching item
+     */
+    public String examine(String name) {
+        // Check the player’s inventory first, then the current room
+        Thing thing = player.find(name);
+        if (thing == null) {
+            thing = currentRoom.find(name);
+        }
+        if (thing != null) {
+            return thing.getDescription() + "\n";
+        }
+        // No match is found
+        return "Nothing found with that name\n";
+    }
+
+    /**
+     * Remove an item from the player’s inventory and add it to the
+     * current room
+     *
+     * @param name short description of the item
+     * @return "Nothing found with that name" if no matching item carried
+     */
+    public String drop(String name) {
+        Thing thing = player.drop(name);
+        // drop() will return null if the item is not found
+        if (thing != null) {
+            currentRoom.enter(thing);
+            roomListener.accept(currentRoom);
+            return "";
+        }
+        return "Nothing found with that name\n";
+    }
+
+    /**
+     * Move an item from the current room to the player’s inventory
+     *
+     * @param name short description of the item
+     * @return "Nothing found with that name" if no matching item
+     */
+    public String take(String name) {
+        // Locked so no one else takes the item or fights the critter first
+        return currentRoom.withLock(() -> {
+            // Objects of type Player is skipped
+            Thing thing = currentRoom.find(name, Thing.class,
+                    candidate -> !(candidate instanceof Explorer));
+            if (thing != null) {
+                if (((Lootable) thing).canLoot(player)
+                        && currentRoom.leave(thing)) {
+                    player.add(thing);
+                    roomListener.accept(currentRoom);
+                }
+                return "";
+            }
+            return "Nothing found with that name\n";
+        });
+    }
+
+    /**
+     * Fight a live Critter in the current room
+     *
+     * @param name short description of the Critter
+     * @return "You won" if the player is alive after fighting.
+     * "Game over" if the player loses. "" if there is no such Critter.
+     */
+    public String fight(String name) {
+        // Locked so no one else fights the critter at the same time
+        return currentRoom.withLock(() -> {
+            // Only fight an alive matching critter
+            Critter critter =
+                    currentRoom.find(name, Critter.class, Critter::isAlive);
+            if (critter != null) {
+                player.fight(critter);
+                roomListener.accept(currentRoom);
+                if (player.isAlive()) {
+                    return "You won\n";
+                } else {
+                    gameOver = true;
+                    return "Game over\n";
+                }
+            }
+            return "";
+        });
+    }
+
+    /**
+     * Save the map. A filename ending in MapJournal.EXTENSION is saved as
+     * a journal: the first save writes the whole map, later saves to the
+     * same file only add the rooms which changed.
+     *
+     * @param filename name of the file to save to
+     * @return "Saved" if successful. "Unable to save" otherwise
+     */
+    public String save(String filename) {
+        if (filename.endsWith(MapJournal.EXTENSION)) {
+            return saveLater(filename).apply(Progress.NONE);
+        }
+        // saveMap() will return true if successful
+        if (MapIO.saveMap(start, filename)) {
+            return "Saved\n";
+        } else {
+            return "Unable to save\n";
+        }
+    }
+
+    /**
+     * Start saving the map. The returned action does the writing, and can
+     * run on another thread while the game (in this or any other session)
+     * goes on. A filename ending in MapJournal.EXTENSION is saved as a
+     * journal: the first save to it writes the whole map, later saves
+     * only add the rooms which changed. Otherwise the action writes a
+     * snapshot of the map as it is when the action begins: while it runs,
+     * rooms of the map about to change are copied for the snapshot (so
+     * if it never runs, no snapshot is taken).
+     *
+     * @param filename name of the file to save to
+     * @return action which writes the file and returns the message to
+     * show: "Saved", "Unable to save" or "Save cancelled"
+     */
+    public Function<Progress, String> saveLater(String filename) {
+        if (filename.endsWith(MapJournal.EXTENSION)) {
+            MapJournal previous = journal;
+            if (journal == null || !journal.getFilename().equals(filename)) {
+                // Nothing is written until the action saves it
+                journal = MapJournal.prepare(start, filename);
+            }
+            MapJournal current = journal;
+            return progress -> {
+                if (previous != null && previous != current) {
+                    previous.close();
+                }
+                return current.save() ? "Saved\n" : "Unable to save\n";
+            };
+        }
+        MapSnapshot taken = new MapSnapshot(start);
+        return progress -> {
+            // Remember whether the save stopped because it was cancelled
+            boolean[] cancelled = new boolean[1];
+            boolean saved = taken.save(filename, (done, total) -> {
+                cancelled[0] = !progress.update(done, total);
+                return !cancelled[0];
+            });
+            if (saved) {
+                return "Saved\n";
+            } else if (cancelled[0]) {
+                return "Save cancelled\n";
+            } else {
+                return "Unable to save\n";
+            }
+        };
+    }
+}
@@ -0,0 +1,153 @@
+package game;
+
+import map.Room;
+import things.Explorer;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Function;
+
+/**
+ * Host many game sessions at once without a user interface.
+ * <p>
+ * Actions are submitted to a session and run on a shared executor. The
+ * actions of one session run one at a time in the order they were
+ * submitted; actions of different sessions run in parallel. A session
+ * does not hold a thread while it waits for its next action, so the
+ * number of sessions is limited by memory rather than threads.
+ * <p>
+ * By default actions run on one thread per processor. Any executor can be
+ * given instead (for example one which starts a virtual thread per task).
+ */
+public class SessionEngine implements AutoCloseable {
+    // Runs the actions
+    private final ExecutorService executor;
+
+    // Whether close() should shut the executor down
+    private final boolean ownsExecutor;
+
+    // Last action submitted to each open session
+    private final ConcurrentHashMap<Session, CompletableFuture<?>> sessions;
+
+    /**
+     * Constructor. Actions run on one daemon thread per processor.
+     */
+    public SessionEngine() {
+        this(Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors(), daemonThreads()),
+                true);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param executor runs the actions (not shut down by close())
+     */
+    public SessionEngine(ExecutorService executor) {
+        this(executor, false);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param executor     runs the actions
+     * @param ownsExecutor whether close() should shut the executor down
+     */
+    private SessionEngine(ExecutorService executor, boolean ownsExecutor) {
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        sessions = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Make threads which don't keep the JVM running
+     *
+     * @return thread factory
+     */
+    private static ThreadFactory daemonThreads() {
+        return task -> {
+            Thread thread = new Thread(task, "session-engine");
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Start a new session. Puts the player into the start room.
+     *
+     * @param start  the start room
+     * @param player the player
+     * @return the session
+     */
+    public Session open(Room start, Explorer player) {
+        Session session = new Session(start, player);
+        sessions.put(session, CompletableFuture.completedFuture(null));
+        return session;
+    }
+
+    /**
+     * Run an action on a session after all its earlier actions have
+     * finished (whether or not they succeeded)
+     *
+     * @param session session to act on
+     * @param action  action to run, e.g. s -> s.enterRoom("North")
+     * @param <T>     result type of the action
+     * @return result of the action, once it has run
+     * @throws IllegalArgumentException if the session is not open
+     */
+    public <T> CompletableFuture<T> submit(Session session,
+                                           Function<Session, T> action) {
+        synchronized (session) {
+            CompletableFuture<?> previous = sessions.get(session);
+            if (previous == null) {
+                throw new IllegalArgumentException("Session is not open");
+            }
+            CompletableFuture<T> next = previous
+                    .handle((result, error) -> null)
+                    .thenApplyAsync(ignored -> action.apply(session), executor);
+            sessions.put(session, next);
+            return next;
+        }
+    }
+
+    /**
+     * End a session. Actions already submitted still run.
+     *
+     * @param session session to end
+     * @return completes when the last submitted action has run
+     */
+    public CompletableFuture<Void> close(Session session) {
+        CompletableFuture<?> last;
+        synchronized (session) {
+            last = sessions.remove(session);
+        }
+        if (last == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return last.handle((result, error) -> null);
+    }
+
+    /**
+     * Number of open sessions
+     *
+     * @return session count
+     */
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * End every session, and stop the executor if this engine made it.
+     * Actions already submitted still run.
+     */
+    @Override
+    public void close() {
+        sessions.clear();
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+}
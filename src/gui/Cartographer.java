@@ -1,63 +1,127 @@
 package gui;
 
+import javafx.concurrent.Task;
+import javafx.scene.SnapshotParameters;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.TextInputDialog;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+import game.Session;
 import map.BoundsMapper;
-import map.MapIO;
 import map.Room;
 import things.Critter;
 import things.Explorer;
 import things.Thing;
 import things.Treasure;
-import utils.Lootable;
+import utils.LongMap;
 import utils.Pair;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 /**
  * Render the map in the GUI
+ * <p>
+ * The canvas is a viewport onto the map which can be dragged around and
+ * zoomed with the scroll wheel. The map is cut into square tiles of rooms.
+ * Each tile is drawn once into an image, which is kept (up to a limit,
+ * least recently used first out) until a room on it changes. Only tiles
+ * which intersect the viewport are drawn, so the cost of rendering
+ * depends on the window size rather than the map size.
  */
 public class Cartographer extends Canvas {
+    // Rooms along each side of a tile
+    private static final int TILE_ROOMS = 8;
+    // Pixels along each side of a tile (each room is 30 pixels)
+    private static final int TILE_SIZE = TILE_ROOMS * 30;
+    // Most tile images kept at once
+    private static final int TILE_CACHE_SIZE = 256;
+    // Smallest and largest zoom factors
+    private static final double MIN_ZOOM = 0.25;
+    private static final double MAX_ZOOM = 4;
+
     // Graphics context to draw the contents
     private GraphicsContext context;
 
-    // The start room
-    private Room start;
-
-    // The player
-    private Explorer player;
-
-    // The current room that the player is in
-    private Room currentRoom;
+    // The game being shown
+    private Session session;
 
     // A Broundsmapper to find the bounding box
     private BoundsMapper mapper;
 
-    // Checking whether the game is over (i.e. the player dies)
-    private boolean gameOver;
+    // Map coordinate in pixels (top left point) of each room, by room id
+    private Pair[] canvasCoords;
+
+    // Rooms whose contents changed since they were last drawn
+    private Set<Room> dirtyRooms;
+
+    // Rooms on each tile, keyed by tileKey()
+    private LongMap<List<Room>> tileRooms;
+
+    // Rasterized tiles, least recently used first
+    private LinkedHashMap<Long, WritableImage> tileImages;
+
+    // Off screen canvas that tiles are drawn on before being copied
+    private Canvas tileCanvas;
+
+    // Map coordinate in pixels shown at the top left of the viewport
+    private double viewX;
+    private double viewY;
+
+    // Canvas pixels per map pixel
+    private double zoom;
+
+    // Last mouse position while dragging the map
+    private double dragX;
+    private double dragY;
 
     /**
      * Constructor
      *
-     * @param width  the canvas width
-     * @param height the canvas height
-     * @param start  the start room
-     * @param player the player
+     * @param width  the canvas (viewport) width
+     * @param height the canvas (viewport) height
+     * @param session the game to show
      */
-    public Cartographer(double width, double height, Room start, Explorer player) {
+    public Cartographer(double width, double height, Session session) {
         setWidth(width);
         setHeight(height);
-        this.start = start;
-        this.player = player;
-        // Put the player into the start room
-        start.enter(player);
-        currentRoom = start;
+        this.session = session;
+        // Redraw the rooms the game changes
+        session.setRoomListener(this::markDirty);
         context = this.getGraphicsContext2D();
-        mapper = new BoundsMapper(start);
+        mapper = new BoundsMapper(session.getStart());
         mapper.walk();
-        update();
-        gameOver = false;
+        canvasCoords = new Pair[mapper.size()];
+        tileRooms = new LongMap<>();
+        for (int id = 0; id < mapper.size(); id++) {
+            long pair = mapper.getPackedCoord(id);
+            Pair coord = new Pair((Pair.unpackX(pair) - mapper.xMin) * 30,
+                    (Pair.unpackY(pair) - mapper.yMin) * 30);
+            canvasCoords[id] = coord;
+            tileRooms.computeIfAbsent(tileKey(coord),
+                    key -> new ArrayList<>()).add(mapper.getRoom(id));
+        }
+        dirtyRooms = Collections.newSetFromMap(new IdentityHashMap<>());
+        tileImages = new LinkedHashMap<Long, WritableImage>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<Long, WritableImage> eldest) {
+                return size() > TILE_CACHE_SIZE;
+            }
+        };
+        tileCanvas = new Canvas(TILE_SIZE, TILE_SIZE);
+        zoom = 1;
+        viewX = viewY = 0;
+        showRoom(session.getCurrentRoom());
+        render();
+        addViewportHandlers();
     }
 
     /**
@@ -66,60 +130,229 @@ public class Cartographer extends Canvas {
      * @return True if the player dies
      */
     public boolean isGameOver() {
-        return gameOver;
+        return session.isGameOver();
     }
 
     /**
-     * Get the coordinate (top left point) of the room on canvas
+     * Get the coordinate (top left point) of the room on the whole map
      *
      * @param room The room
      * @return The coordinate
      */
     private Pair getCoord(Room room) {
-        Pair pair = mapper.coords.get(room);
-        return new Pair((pair.x - mapper.xMin) * 30, (pair.y - mapper.yMin) * 30);
+        return canvasCoords[mapper.getId(room)];
     }
 
     /**
-     * Clear the canvas then draw everything
+     * Key for the tile holding a map coordinate
+     *
+     * @param coord Coordinate in map pixels
+     * @return Tile column and row packed with Pair.pack
      */
-    private void update() {
+    private static long tileKey(Pair coord) {
+        return tileKey(coord.x / TILE_SIZE, coord.y / TILE_SIZE);
+    }
+
+    /**
+     * Key for a tile
+     *
+     * @param column Tile column
+     * @param row    Tile row
+     * @return Tile column and row packed with Pair.pack
+     */
+    private static long tileKey(int column, int row) {
+        return Pair.pack(column, row);
+    }
+
+    /**
+     * Let the mouse drag the map around and the scroll wheel zoom it
+     */
+    private void addViewportHandlers() {
+        setOnMousePressed(event -> {
+            dragX = event.getX();
+            dragY = event.getY();
+        });
+        setOnMouseDragged(event -> {
+            pan(dragX - event.getX(), dragY - event.getY());
+            dragX = event.getX();
+            dragY = event.getY();
+        });
+        setOnScroll(event -> {
+            if (event.getDeltaY() != 0) {
+                zoomAt(event.getX(), event.getY(),
+                        event.getDeltaY() > 0 ? 1.25 : 0.8);
+            }
+        });
+    }
+
+    /**
+     * Move the viewport
+     *
+     * @param dx Canvas pixels to move right
+     * @param dy Canvas pixels to move down
+     */
+    public void pan(double dx, double dy) {
+        viewX += dx / zoom;
+        viewY += dy / zoom;
+        render();
+    }
+
+    /**
+     * Zoom the viewport, keeping one canvas point fixed.
+     * The zoom factor is kept between 0.25 and 4.
+     *
+     * @param x      Canvas x coordinate to keep fixed
+     * @param y      Canvas y coordinate to keep fixed
+     * @param factor Amount to multiply the zoom by
+     */
+    public void zoomAt(double x, double y, double factor) {
+        double newZoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, zoom * factor));
+        viewX += x / zoom - x / newZoom;
+        viewY += y / zoom - y / newZoom;
+        zoom = newZoom;
+        render();
+    }
+
+    /**
+     * Centre the viewport on a room if it is not completely visible
+     *
+     * @param room The room
+     */
+    private void showRoom(Room room) {
+        Pair coord = getCoord(room);
+        double viewWidth = getWidth() / zoom;
+        double viewHeight = getHeight() / zoom;
+        if (coord.x < viewX || coord.x + 30 > viewX + viewWidth
+                || coord.y < viewY || coord.y + 30 > viewY + viewHeight) {
+            viewX = coord.x + 15 - viewWidth / 2;
+            viewY = coord.y + 15 - viewHeight / 2;
+        }
+        // Maps which fit in the viewport always stay at the top left
+        if ((mapper.xMax - mapper.xMin + 1) * 30 <= viewWidth) {
+            viewX = 0;
+        }
+        if ((mapper.yMax - mapper.yMin + 1) * 30 <= viewHeight) {
+            viewY = 0;
+        }
+    }
+
+    /**
+     * Clear the canvas then draw the tiles which intersect the viewport
+     */
+    private void render() {
         context.clearRect(0, 0, this.getWidth(), this.getHeight());
-        for (Room room : mapper.coords.keySet()) {
-            int x = getCoord(room).x;
-            int y = getCoord(room).y;
-            drawRoom(x, y);
-            for (String exit : room.getExits().keySet()) {
-                // Ignore the exits which are not labelled correctly
-                if (exit.equals("North") || exit.equals("South") ||
-                        exit.equals("East") || exit.equals("West")) {
-                    drawExits(exit, x, y);
+        int firstColumn = (int) Math.floor(viewX / TILE_SIZE);
+        int lastColumn =
+                (int) Math.floor((viewX + getWidth() / zoom) / TILE_SIZE);
+        int firstRow = (int) Math.floor(viewY / TILE_SIZE);
+        int lastRow =
+                (int) Math.floor((viewY + getHeight() / zoom) / TILE_SIZE);
+        for (int column = firstColumn; column <= lastColumn; column++) {
+            for (int row = firstRow; row <= lastRow; row++) {
+                WritableImage image = getTile(column, row);
+                if (image != null) {
+                    context.drawImage(image,
+                            (column * TILE_SIZE - viewX) * zoom,
+                            (row * TILE_SIZE - viewY) * zoom,
+                            TILE_SIZE * zoom, TILE_SIZE * zoom);
                 }
             }
-            for (Thing thing : room.getContents()) {
-                drawThings(thing, x, y);
+        }
+    }
+
+    /**
+     * Get the image of a tile, drawing it if it is not cached
+     *
+     * @param column Tile column
+     * @param row    Tile row
+     * @return The image or null if there are no rooms on the tile
+     */
+    private WritableImage getTile(int column, int row) {
+        long key = tileKey(column, row);
+        WritableImage image = tileImages.get(key);
+        if (image == null) {
+            List<Room> rooms = tileRooms.get(key);
+            if (rooms == null) {
+                return null;
+            }
+            GraphicsContext tile = tileCanvas.getGraphicsContext2D();
+            tile.clearRect(0, 0, TILE_SIZE, TILE_SIZE);
+            for (Room room : rooms) {
+                Pair coord = getCoord(room);
+                int x = coord.x - column * TILE_SIZE;
+                int y = coord.y - row * TILE_SIZE;
+                drawRoom(tile, x, y);
+                drawDetails(tile, room, x, y);
+            }
+            SnapshotParameters parameters = new SnapshotParameters();
+            parameters.setFill(Color.TRANSPARENT);
+            image = tileCanvas.snapshot(parameters, null);
+            tileImages.put(key, image);
+        }
+        return image;
+    }
+
+    /**
+     * Note that a room's contents have changed and it needs redrawing
+     *
+     * @param room The room
+     */
+    private void markDirty(Room room) {
+        dirtyRooms.add(room);
+    }
+
+    /**
+     * Throw away the tiles holding rooms whose contents changed since the
+     * last update, then redraw the viewport.
+     */
+    private void update() {
+        for (Room room : dirtyRooms) {
+            tileImages.remove(tileKey(getCoord(room)));
+        }
+        dirtyRooms.clear();
+        render();
+    }
+
+    /**
+     * Draw the exits and contents of a room
+     *
+     * @param context Graphics context to draw on
+     * @param room    The room
+     * @param x       X coordinate
+     * @param y       Y coordinate
+     */
+    private void drawDetails(GraphicsContext context, Room room, int x, int y) {
+        // Only the exits which are labelled correctly are drawn
+        for (int direction = 0; direction < 4; direction++) {
+            if (room.getExit(direction) != null) {
+                drawExits(context, Room.DIRECTIONS.get(direction), x, y);
             }
         }
+        for (Thing thing : room.getContents()) {
+            drawThings(context, thing, x, y);
+        }
     }
 
     /**
      * Draw the rooms. Each room is rendered as a square
      *
-     * @param x X coordinate
-     * @param y Y coordinate
+     * @param context Graphics context to draw on
+     * @param x       X coordinate
+     * @param y       Y coordinate
      */
-    private void drawRoom(int x, int y) {
+    private void drawRoom(GraphicsContext context, int x, int y) {
         context.strokeRect(x, y, 30, 30);
     }
 
     /**
      * Draw the contents, including the player, critter, and treasure.
      *
-     * @param thing Things to draw
-     * @param x     X coordinate
-     * @param y     Y coordinate
+     * @param context Graphics context to draw on
+     * @param thing   Things to draw
+     * @param x       X coordinate
+     * @param y       Y coordinate
      */
-    private void drawThings(Thing thing, int x, int y) {
+    private void drawThings(GraphicsContext context, Thing thing, int x, int y) {
         if (thing instanceof Treasure) {
             // For treasures, a $ is drawn in the top right corner
             context.fillText("$", x + 22, y + 10);
@@ -140,11 +373,12 @@ public class Cartographer extends Canvas {
     /**
      * Draw exits at the midpoints of room edges
      *
-     * @param exit The exit name
-     * @param x    X coordinate
-     * @param y    Y coordinate
+     * @param context Graphics context to draw on
+     * @param exit    The exit name
+     * @param x       X coordinate
+     * @param y       Y coordinate
      */
-    private void drawExits(String exit, int x, int y) {
+    private void drawExits(GraphicsContext context, String exit, int x, int y) {
         switch (exit) {
             case "North":
                 context.strokeLine(x + 15, y, x + 15, y + 3);
@@ -161,6 +395,20 @@ public class Cartographer extends Canvas {
         }
     }
 
+    /**
+     * Show a dialog box to get a short description from the player
+     *
+     * @param title Dialog title
+     * @return What was entered, or empty if the dialog was cancelled
+     */
+    private Optional<String> prompt(String title) {
+        TextInputDialog dialog = new TextInputDialog();
+        dialog.setHeaderText(null);
+        dialog.setTitle(title);
+        dialog.setGraphic(null);
+        return dialog.showAndWait();
+    }
+
     /**
      * Let the player enter an adjacent room
      *
@@ -168,18 +416,10 @@ public class Cartographer extends Canvas {
      * @return Sentence to be displayed in message area.
      */
     public String enterRoom(String exit) {
-        // No exit in the specified direction
-        if (!currentRoom.getExits().containsKey(exit)) {
-            return "No door that way";
-        }
-        // The player cannot leave
-        if (!currentRoom.leave(player)) {
-            return "Something prevents you from leaving";
-        }
-        currentRoom = currentRoom.getExits().get(exit);
-        currentRoom.enter(player);
+        String result = session.enterRoom(exit);
+        showRoom(session.getCurrentRoom());
         update();
-        return "You enter " + currentRoom.getDescription();
+        return result;
     }
 
     /**
@@ -189,21 +429,7 @@ public class Cartographer extends Canvas {
      * @return information to display
      */
     public String look() {
-        StringBuilder string = new StringBuilder();
-        for (Thing thing : currentRoom.getContents()) {
-            // Short descriptions of each Thing in the room
-            string.append(" ").append(thing.getShortDescription()).append("\n");
-        }
-        string.append("You are carrying:\n");
-        double value = 0;
-        for (Thing thing : player.getContents()) {
-            // Short descriptions of each Thing the player is carrying
-            string.append(" ").append(thing.getShortDescription()).append("\n");
-            value += ((Lootable) thing).getValue();
-        }
-        // Total item values. Formatted for one decimal place.
-        string.append(String.format("worth %.1f in total\n", value));
-        return currentRoom.getDescription() + " - you see: \n" + string;
+        return session.look();
     }
 
     /**
@@ -213,28 +439,7 @@ public class Cartographer extends Canvas {
      * "Nothing found with that name" if no matching item
      */
     public String examine() {
-        TextInputDialog dialog = new TextInputDialog();
-        dialog.setHeaderText(null);
-        dialog.setTitle("Examine what?");
-        dialog.setGraphic(null);
-        Optional<String> input = dialog.showAndWait();
-        if (input.isPresent()) {
-            // Check the player’s inventory first
-            for (Thing thing : player.getContents()) {
-                if (input.get().equals(thing.getShortDescription())) {
-                    return thing.getDescription() + "\n";
-                }
-            }
-            // Then if no match is found, the contents of the current room
-            for (Thing thing : currentRoom.getContents()) {
-                if (input.get().equals(thing.getShortDescription())) {
-                    return thing.getDescription() + "\n";
-                }
-            }
-            // No match is found
-            return "Nothing found with that name\n";
-        }
-        return "";
+        return prompt("Examine what?").map(session::examine).orElse("");
     }
 
     /**
@@ -244,22 +449,9 @@ public class Cartographer extends Canvas {
      * @return "Nothing found with that name" if no matching item carried
      */
     public String drop() {
-        TextInputDialog dialog = new TextInputDialog();
-        dialog.setHeaderText(null);
-        dialog.setTitle("Item to drop?");
-        dialog.setGraphic(null);
-        Optional<String> input = dialog.showAndWait();
-        if (input.isPresent()) {
-            Thing thing = player.drop(input.get());
-            // drop() will return null if the item is not found
-            if (thing != null) {
-                currentRoom.enter(thing);
-                update();
-                return "";
-            }
-            return "Nothing found with that name\n";
-        }
-        return "";
+        String result = prompt("Item to drop?").map(session::drop).orElse("");
+        update();
+        return result;
     }
 
     /**
@@ -268,30 +460,9 @@ public class Cartographer extends Canvas {
      * @return "Nothing found with that name" if no matching item
      */
     public String take() {
-        TextInputDialog dialog = new TextInputDialog();
-        dialog.setHeaderText(null);
-        dialog.setTitle("Take what?");
-        dialog.setGraphic(null);
-        Optional<String> input = dialog.showAndWait();
-        if (input.isPresent()) {
-            for (Thing thing : currentRoom.getContents()) {
-                // Objects of type Player is skipped
-                if (!(thing instanceof Explorer)) {
-                    if (input.get().equals(thing.getShortDescription())) {
-                        if (((Lootable) thing).canLoot(player)
-                                && currentRoom.leave(thing)) {
-                            player.add(thing);
-                            update();
-                            return "";
-                        } else {
-                            return "";
-                        }
-                    }
-                }
-            }
-            return "Nothing found with that name\n";
-        }
-        return "";
+        String result = prompt("Take what?").map(session::take).orElse("");
+        update();
+        return result;
     }
 
     /**
@@ -301,50 +472,23 @@ public class Cartographer extends Canvas {
      * "Game over" if the player loses.
      */
     public String fight() {
-        TextInputDialog dialog = new TextInputDialog();
-        dialog.setHeaderText(null);
-        dialog.setTitle("Fight what?");
-        dialog.setGraphic(null);
-        Optional<String> input = dialog.showAndWait();
-        if (input.isPresent()) {
-            for (Thing thing : currentRoom.getContents()) {
-                // Only fight an alive matching critter
-                if (input.get().equals(thing.getShortDescription())
-                        && thing instanceof Critter
-                        && ((Critter) thing).isAlive()) {
-                    player.fight((Critter) thing);
-                    update();
-                    if (player.isAlive()) {
-                        return "You won\n";
-                    } else {
-                        gameOver = true;
-                        return "Game over\n";
-                    }
-                }
-            }
-        }
-        return "";
+        String result = prompt("Fight what?").map(session::fight).orElse("");
+        update();
+        return result;
     }
 
     /**
-     * Save the map. Show a dialog box to get the file name to use
+     * Save the map in the background. Show a dialog box to get the file
+     * name to use. The game can go on while the map is written; the file
+     * holds the map as it was when the save started.
      *
-     * @return "Saved" if successful. "Unable to save" otherwise
+     * @return the running save, whose value is "Saved", "Unable to save"
+     * or "Save cancelled". null if no file name was given.
      */
-    public String save() {
-        TextInputDialog dialog = new TextInputDialog();
-        dialog.setHeaderText(null);
-        dialog.setTitle("Save filename?");
-        dialog.setGraphic(null);
-        Optional<String> input = dialog.showAndWait();
-        if (input.isPresent()) {
-            // saveMap() will return true if successful
-            if (MapIO.saveMap(start, input.get())) {
-                return "Saved\n";
-            } else {
-                return "Unable to save\n";
-            }
-        }
-        return "";
+    public Task<String> save() {
+        return prompt("Save filename?")
+                .<Task<String>>map(filename ->
+                        ProgressTask.start(session.saveLater(filename)))
+                .orElse(null);
     }
 }
@@ -1,21 +1,31 @@
 package gui;
 
 import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.concurrent.Task;
+import javafx.geometry.Insets;
+import javafx.scene.Scene;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
 import map.MapIO;
+import map.MapJournal;
 import map.Room;
 import things.Explorer;
+import utils.Progress;
 
 /**
  * Main application. Launch "Crawl - Explore" game
  */
 public class CrawlGui extends Application {
 
-    // List of the player and start room
-    private static Object[] list;
+    // Name of the map to load
+    private static String map;
 
     /**
-     * Set the window
+     * Set the window. The map is loaded in the background while a
+     * progress bar is shown, then the game is shown.
      *
      * @param stage the stage
      */
@@ -23,16 +33,68 @@ public class CrawlGui extends Application {
     public void start(Stage stage) {
         stage.setTitle("Crawl - Explore");
 
-        Explorer player = (Explorer) list[0];
+        Task<Object[]> loading = ProgressTask.start(CrawlGui::load);
+        ProgressBar progress = new ProgressBar();
+        progress.progressProperty().bind(loading.progressProperty());
+        VBox box = new VBox(10, new Label("Loading " + map + "..."), progress);
+        box.setPadding(new Insets(20));
+        stage.setScene(new Scene(box));
+        // Closing the window stops the load
+        stage.setOnCloseRequest(event -> loading.cancel());
+        stage.show();
 
-        Room start = (Room) list[1];
+        loading.setOnSucceeded(event -> {
+            // List of the player, start room and journal
+            Object[] list = loading.getValue();
+            if (list == null) {
+                unableToLoad();
+                return;
+            }
+            Explorer player = (Explorer) list[0];
 
-        View view = new View(start, player);
+            Room start = (Room) list[1];
 
-        stage.setScene(view.getScene());
-        // Initial window size varies depending on the loaded map
-        stage.sizeToScene();
-        stage.show();
+            View view = new View(start, player, (MapJournal) list[2]);
+
+            stage.setOnCloseRequest(null);
+            stage.setScene(view.getScene());
+            // Initial window size varies depending on the loaded map
+            stage.sizeToScene();
+        });
+        loading.setOnFailed(event -> unableToLoad());
+    }
+
+    /**
+     * Load the map (on the loading thread)
+     *
+     * @param progress told how far the load has got
+     * @return null if unsuccessful. If successful, an array of three
+     * Objects: the player, the start room and the journal the map was
+     * loaded from (null if it is not a journal).
+     */
+    private static Object[] load(Progress progress) {
+        if (map.endsWith(MapJournal.EXTENSION)) {
+            MapJournal journal = MapJournal.open(map);
+            if (journal == null) {
+                return null;
+            }
+            return new Object[]{journal.getPlayer(), journal.getStart(),
+                    journal};
+        }
+        Object[] loaded = MapIO.loadMap(map, progress);
+        if (loaded == null) {
+            return null;
+        }
+        return new Object[]{loaded[0], loaded[1], null};
+    }
+
+    /**
+     * Report that the map could not be loaded and exit with status 2
+     */
+    private static void unableToLoad() {
+        System.err.println("Unable to load file\n");
+        Platform.exit();
+        System.exit(2);
     }
 
     /**
@@ -42,6 +104,9 @@ public class CrawlGui extends Application {
      * If the argument is present but the map can not be loaded,
      * "Unable to load file" is tobe printed to standard error
      * and the program will exit with status 2.
+     * A map whose name ends in MapJournal.EXTENSION is loaded as a journal,
+     * and saving to the same name adds to it.
+     * The window opens at once and the map is loaded in the background.
      *
      * @param args command line argument
      */
@@ -50,13 +115,7 @@ public class CrawlGui extends Application {
             System.err.println("Usage: java CrawlGui mapname\n");
             System.exit(1);
         }
-        String map = args[0];
-
-        list = MapIO.loadMap(map);
-        if (list == null) {
-            System.err.println("Unable to load file\n");
-            System.exit(2);
-        }
+        map = args[0];
 
         launch(args);
     }
@@ -0,0 +1,56 @@
+package gui;
+
+import javafx.concurrent.Task;
+import utils.Progress;
+
+import java.util.function.Function;
+
+/**
+ * Long running work (such as saving or loading a map) run on its own
+ * thread, so the JavaFX application thread is free to keep the window
+ * responsive. Progress is shown through the Task's progress property and
+ * cancelling the Task asks the work to stop.
+ *
+ * @param <T> result type of the work
+ */
+class ProgressTask<T> extends Task<T> {
+    // The work to do
+    private final Function<Progress, T> work;
+
+    /**
+     * Constructor
+     *
+     * @param work the work to do, given a Progress to report to
+     */
+    ProgressTask(Function<Progress, T> work) {
+        this.work = work;
+    }
+
+    /**
+     * Start work on a new daemon thread
+     *
+     * @param work the work to do
+     * @param <T>  result type of the work
+     * @return the running task
+     */
+    static <T> ProgressTask<T> start(Function<Progress, T> work) {
+        ProgressTask<T> task = new ProgressTask<>(work);
+        Thread thread = new Thread(task, "map-io");
+        thread.setDaemon(true);
+        thread.start();
+        return task;
+    }
+
+    /**
+     * Do the work (on the task's thread)
+     *
+     * @return result of the work
+     */
+    @Override
+    protected T call() {
+        return work.apply((done, total) -> {
+            updateProgress(done, total);
+            return !isCancelled();
+        });
+    }
+}
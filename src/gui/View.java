@@ -1,12 +1,16 @@
 package gui;
 
+import game.Session;
 import javafx.geometry.Insets;
 import javafx.scene.Node;
 import javafx.scene.Scene;
+import javafx.concurrent.Task;
 import javafx.scene.control.Button;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.control.TextArea;
 import javafx.scene.layout.*;
 import map.BoundsMapper;
+import map.MapJournal;
 import map.Room;
 import things.Explorer;
 
@@ -14,6 +18,9 @@ import things.Explorer;
  * Set the layout of GUI elements
  */
 public class View {
+    // Largest size of the map viewport in pixels
+    private static final int MAX_CANVAS_WIDTH = 900;
+    private static final int MAX_CANVAS_HEIGHT = 600;
 
     // The root node of the scene graph, to add all the GUI elements to.
     private VBox rootBox;
@@ -25,18 +32,31 @@ public class View {
     private Button[] exitButtons;
     // Cartographer which draws the contents
     private Cartographer graph;
+    // Save running in the background (null if none)
+    private Task<String> saving;
+    // Shows how far the running save has got
+    private ProgressBar saveProgress;
 
     /**
      * Constructor
+     *
+     * @param start   the start room
+     * @param player  the player
+     * @param journal journal the map was loaded from (null if none)
      */
-    public View(Room start, Explorer player) {
+    public View(Room start, Explorer player, MapJournal journal) {
         rootBox = new VBox();
         this.start = start;
         BoundsMapper mapper = new BoundsMapper(start);
         mapper.walk();
-        int canvasWidth = (mapper.xMax - mapper.xMin + 1) * 30;
-        int canvasHeight = (mapper.yMax - mapper.yMin + 1) * 30;
-        graph = new Cartographer(canvasWidth, canvasHeight, start, player);
+        // Small maps are shown whole, larger ones through a viewport
+        int canvasWidth = Math.min((mapper.xMax - mapper.xMin + 1) * 30,
+                MAX_CANVAS_WIDTH);
+        int canvasHeight = Math.min((mapper.yMax - mapper.yMin + 1) * 30,
+                MAX_CANVAS_HEIGHT);
+        Session session = new Session(start, player);
+        session.setJournal(journal);
+        graph = new Cartographer(canvasWidth, canvasHeight, session);
         exitButtons = new Button[4];
         addComponents();
     }
@@ -138,7 +158,34 @@ public class View {
         Button fight = new Button("Fight");
 
         Button save = new Button("Save");
-        save.setOnAction(event -> message.appendText(graph.save()));
+        saveProgress = new ProgressBar();
+        saveProgress.setVisible(false);
+        // While saving, the button cancels the save
+        save.setOnAction(event -> {
+            if (saving != null) {
+                saving.cancel();
+                return;
+            }
+            saving = graph.save();
+            if (saving != null) {
+                Task<String> task = saving;
+                save.setText("Cancel");
+                saveProgress.progressProperty().bind(task.progressProperty());
+                saveProgress.setVisible(true);
+                task.setOnSucceeded(done -> {
+                    message.appendText(task.getValue());
+                    saveFinished(save);
+                });
+                task.setOnCancelled(done -> {
+                    message.appendText("Save cancelled\n");
+                    saveFinished(save);
+                });
+                task.setOnFailed(done -> {
+                    message.appendText("Unable to save\n");
+                    saveFinished(save);
+                });
+            }
+        });
 
         // Add action buttons to a grid pane
         GridPane bottomGrid = new GridPane();
@@ -148,6 +195,7 @@ public class View {
         bottomGrid.add(take, 1, 1);
         bottomGrid.add(fight, 0, 2);
         bottomGrid.add(save, 0, 3);
+        bottomGrid.add(saveProgress, 1, 3);
 
         // Add the two panes containing all buttons to the VBox
         box.getChildren().addAll(topGrid, bottomGrid);
@@ -165,4 +213,16 @@ public class View {
             }
         });
     }
+
+    /**
+     * Put the save button back once a save has finished
+     *
+     * @param save the save button
+     */
+    private void saveFinished(Button save) {
+        saving = null;
+        save.setText("Save");
+        saveProgress.progressProperty().unbind();
+        saveProgress.setVisible(false);
+    }
 }
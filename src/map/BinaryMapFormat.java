@@ -0,0 +1,293 @@
+package map;
+
+import things.Explorer;
+import things.Thing;
+import things.ThingTypes;
+import utils.Descriptions;
+import utils.Varint;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * Reading and writing of binary map files.
+ * <p>
+ * Layout (version 1). Numbers are Varints unless noted otherwise,
+ * strings are indices into the string table:
+ * <pre>
+ *   magic "CRWB", version (1 byte)
+ *   room count
+ *   room records, root first. Each is its byte length followed by:
+ *       description, exit count, (exit label, target room id)*,
+ *       thing count, thing records (see Thing.write and ThingTypes)
+ *   string table: count, (UTF-8 byte length, UTF-8 bytes)*
+ *   trailer: id of the room holding the explorer or -1 (4 byte int),
+ *       byte length of the string table (8 byte long)
+ * </pre>
+ */
+final class BinaryMapFormat {
+    // First bytes of every binary map
+    static final byte[] MAGIC = {'C', 'R', 'W', 'B'};
+    // Current format version
+    static final int VERSION = 1;
+    // Size of the fixed trailer at the end of the file
+    static final int TRAILER_SIZE = 12;
+
+    /**
+     * Not instantiable
+     */
+    private BinaryMapFormat() {
+    }
+
+    /**
+     * Write all rooms reachable from root
+     *
+     * @param root   Start room (will have id 0)
+     * @param stream Stream to write to (caller should buffer and close it)
+     * @throws IOException if stream fails
+     */
+    static void write(Room root, OutputStream stream) throws IOException {
+        RoomIndex index = new RoomIndex(root);
+        index.walk();
+        write(index, stream);
+    }
+
+    /**
+     * Write the rooms of an index, numbered as in the index
+     *
+     * @param index  walked index of the rooms to write (root is id 0)
+     * @param stream Stream to write to (caller should buffer and close it)
+     * @throws IOException if stream fails
+     */
+    static void write(RoomIndex index, OutputStream stream)
+            throws IOException {
+        Map<String, Integer> stringIds = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        ToIntFunction<String> intern = s -> {
+            Integer id = stringIds.get(s);
+            if (id == null) {
+                id = strings.size();
+                stringIds.put(s, id);
+                strings.add(s);
+            }
+            return id;
+        };
+
+        DataOutputStream out = new DataOutputStream(stream);
+        out.write(MAGIC);
+        out.writeByte(VERSION);
+        Varint.write(out, index.size());
+        // Each room is built here first so it can be length prefixed
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream record = new DataOutputStream(buffer);
+        int playerRoom = -1;
+        for (int id = 0; id < index.size(); id++) {
+            buffer.reset();
+            if (writeRoom(record, index.getRoom(id), index::getId, intern)) {
+                playerRoom = id;
+            }
+            Varint.write(out, buffer.size());
+            buffer.writeTo(out);
+        }
+
+        buffer.reset();
+        Varint.write(record, strings.size());
+        for (String s : strings) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            Varint.write(record, bytes.length);
+            record.write(bytes);
+        }
+        buffer.writeTo(out);
+        out.writeInt(playerRoom);
+        out.writeLong(buffer.size());
+        out.flush();
+    }
+
+    /**
+     * Write one room record: description, exits and contents
+     *
+     * @param out     Stream to write to
+     * @param room    Room to write
+     * @param roomIds id of each room an exit leads to
+     * @param strings index of each string in the string table
+     * @return true if the room holds an explorer
+     * @throws IOException if out fails
+     */
+    static boolean writeRoom(DataOutputStream out, Room room,
+                             ToIntFunction<Room> roomIds,
+                             ToIntFunction<String> strings)
+            throws IOException {
+        Varint.write(out, strings.applyAsInt(room.getDescription()));
+        // Copied so the count matches the exits written
+        Map<String, Room> exits = new LinkedHashMap<>(room.getExits());
+        Varint.write(out, exits.size());
+        for (Map.Entry<String, Room> exit : exits.entrySet()) {
+            Varint.write(out, strings.applyAsInt(exit.getKey()));
+            Varint.write(out, roomIds.applyAsInt(exit.getValue()));
+        }
+        boolean hasExplorer = false;
+        List<Thing> contents = room.getContents();
+        Varint.write(out, contents.size());
+        for (Thing thing : contents) {
+            if (thing instanceof Explorer) {
+                hasExplorer = true;
+            }
+            thing.write(out, strings);
+        }
+        return hasExplorer;
+    }
+
+    /**
+     * Check the magic number and version, leaving in positioned at the
+     * room count.
+     *
+     * @param in Buffer holding a whole map file
+     * @throws IllegalArgumentException if in is not a supported binary map
+     */
+    static void readHeader(ByteBuffer in) {
+        for (byte b : MAGIC) {
+            if (in.get() != b) {
+                throw new IllegalArgumentException("Not a binary map");
+            }
+        }
+        if (in.get() != VERSION) {
+            throw new IllegalArgumentException("Unsupported map version");
+        }
+    }
+
+    /**
+     * Id of the room which holds the explorer
+     *
+     * @param in Buffer holding a whole map file
+     * @return room id or -1 if there is no explorer
+     */
+    static int readPlayerRoom(ByteBuffer in) {
+        return in.getInt(in.limit() - TRAILER_SIZE);
+    }
+
+    /**
+     * Position of the string table
+     *
+     * @param in Buffer holding a whole map file
+     * @return absolute offset of the string table in in
+     */
+    static int stringTableOffset(ByteBuffer in) {
+        long length = in.getLong(in.limit() - 8);
+        return Math.toIntExact(in.limit() - TRAILER_SIZE - length);
+    }
+
+    /**
+     * Read a length prefixed UTF-8 string
+     *
+     * @param in Buffer positioned at the string
+     * @return decoded string (shared through utils.Descriptions)
+     */
+    static String readString(ByteBuffer in) {
+        int length = Varint.read(in);
+        String s;
+        if (in.hasArray()) {
+            s = new String(in.array(), in.arrayOffset() + in.position(),
+                    length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            s = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return Descriptions.canonical(s);
+    }
+
+    /**
+     * Read a whole map into memory
+     *
+     * @param in Buffer holding a whole map file
+     * @return an array of two Objects. [0] being the explorer
+     * (null if not found) and [1] being the start room.
+     * @throws IllegalArgumentException if in is not a supported binary map
+     * @throws java.nio.BufferUnderflowException if in is truncated
+     * @throws exceptions.ExitExistsException if a room has repeated exits
+     * @throws exceptions.NullRoomException if an exit has no target
+     */
+    static Object[] read(ByteBuffer in) throws Exception {
+        readHeader(in);
+        String[] strings = readStrings(in);
+        IntFunction<String> lookup = id -> strings[id];
+
+        // First pass creates the rooms so that exits can refer forwards
+        Room[] rooms = new Room[Varint.read(in)];
+        int[] offsets = new int[rooms.length];
+        for (int i = 0; i < rooms.length; i++) {
+            int length = Varint.read(in);
+            offsets[i] = in.position();
+            rooms[i] = new Room(strings[Varint.read(in)]);
+            in.position(offsets[i] + length);
+        }
+
+        Object[] result = new Object[2];
+        result[1] = rooms[0];
+        for (int i = 0; i < rooms.length; i++) {
+            in.position(offsets[i]);
+            Varint.read(in);
+            readRoom(in, rooms[i], rooms, lookup, result);
+        }
+        return result;
+    }
+
+    /**
+     * Read the string table
+     *
+     * @param in Buffer holding a whole map file (its position is unchanged)
+     * @return the strings in table order
+     */
+    static String[] readStrings(ByteBuffer in) {
+        ByteBuffer table = in.duplicate();
+        table.position(stringTableOffset(in));
+        String[] strings = new String[Varint.read(table)];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = readString(table);
+        }
+        return strings;
+    }
+
+    /**
+     * Read the exits and contents of a room record into a room
+     *
+     * @param in      Buffer positioned just after the room's description
+     * @param room    Room to fill
+     * @param rooms   Rooms by id, for the exits
+     * @param strings string table lookup
+     * @param result  [0] is set to any explorer found (which is not
+     *                put in the room)
+     * @throws exceptions.ExitExistsException if the room has repeated exits
+     * @throws exceptions.NullRoomException if an exit has no target
+     */
+    static void readRoom(ByteBuffer in, Room room, Room[] rooms,
+                         IntFunction<String> strings, Object[] result)
+            throws Exception {
+        int exitCount = Varint.read(in);
+        for (int j = 0; j < exitCount; j++) {
+            String label = strings.apply(Varint.read(in));
+            room.addExit(label, rooms[Varint.read(in)]);
+        }
+        int itemCount = Varint.read(in);
+        for (int j = 0; j < itemCount; j++) {
+            Thing thing = ThingTypes.read(in, strings);
+            if (thing instanceof Explorer) {
+                result[0] = thing;
+            } else {
+                room.enter(thing);
+            }
+        }
+    }
+}
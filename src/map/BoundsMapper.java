@@ -1,16 +1,30 @@
 package map;
 
+import utils.LongIntMap;
 import utils.Pair;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 /**
  * Find the bounding box for the overall map.
+ * Also records the coordinate of every room (by room id, packed into a
+ * long) and which room is at each coordinate.
  */
-public class BoundsMapper extends MapWalker {
-    // Map Rooms to coordinates
-    public Map<Room, Pair> coords;
+public class BoundsMapper extends RoomIndex {
+    // Fewest rooms in each region laid out by walkParallel
+    private static final int MIN_REGION_SIZE = 1 << 12;
+    // Offset from a room to the room through each cardinal exit
+    // (indexed as Room.DIRECTIONS)
+    private static final int[] DX = {0, 0, 1, -1};
+    private static final int[] DY = {-1, 1, 0, 0};
+
+    // Packed coordinate of each room, indexed by room id
+    private long[] coords;
+    // Id of the room at each packed coordinate
+    private LongIntMap roomsAt;
     // Minimum x coordinate for rooms (root has x=0)
     public int xMin;
     // Maximum x coordinate for rooms (root has x=0)
@@ -19,6 +33,8 @@ public class BoundsMapper extends MapWalker {
     public int yMin;
     // Maximum y coordinate for rooms (root has y=0)
     public int yMax;
+    // True while walkParallel is numbering rooms (coordinates come later)
+    private boolean indexOnly;
 
     /**
      * Constructor
@@ -27,7 +43,8 @@ public class BoundsMapper extends MapWalker {
      */
     public BoundsMapper(Room root) {
         super(root);
-        coords = new HashMap<>();
+        coords = new long[16];
+        roomsAt = new LongIntMap();
         xMin = xMax = yMin = yMax = 0;
     }
 
@@ -46,12 +63,20 @@ public class BoundsMapper extends MapWalker {
      */
     @Override
     protected void visit(Room room) {
-        if (room.getExits().isEmpty()) {
-            coords.put(room, new Pair(0, 0));
+        if (indexOnly) {
+            super.visit(room);
+            return;
+        }
+        long coord = checkNeighbours(room);
+        super.visit(room);
+        int id = size() - 1;
+        if (id == coords.length) {
+            coords = Arrays.copyOf(coords, id * 2);
         }
-        checkNeighbours(room);
-        int x = coords.get(room).x;
-        int y = coords.get(room).y;
+        coords[id] = coord;
+        roomsAt.putIfAbsent(coord, id);
+        int x = Pair.unpackX(coord);
+        int y = Pair.unpackY(coord);
         xMax = (x > xMax) ? x : xMax;
         xMin = (x < xMin) ? x : xMin;
         yMax = (y > yMax) ? y : yMax;
@@ -61,33 +86,384 @@ public class BoundsMapper extends MapWalker {
     /**
      * Check for known coordinates in order: North, South, East, West.
      *
-     * @param room Room to assign coordinates to
-     */
-    private void checkNeighbours(Room room) {
-        Map<String, Room> exits = room.getExits();
-        int neighbourX, neighbourY;
-        for (Map.Entry<String, Room> mapping : exits.entrySet()) {
-            if (coords.containsKey(mapping.getValue())) {
-                neighbourX = coords.get(mapping.getValue()).x;
-                neighbourY = coords.get(mapping.getValue()).y;
-                switch (mapping.getKey()) {
-                    case "North":
-                        coords.put(room, new Pair(neighbourX, neighbourY + 1));
-                        return;
-                    case "South":
-                        coords.put(room, new Pair(neighbourX, neighbourY - 1));
-                        return;
-                    case "East":
-                        coords.put(room, new Pair(neighbourX - 1, neighbourY));
-                        return;
-                    case "West":
-                        coords.put(room, new Pair(neighbourX + 1, neighbourY));
-                        return;
-                }
+     * @param room Room to find coordinates for
+     * @return packed coordinates for room
+     */
+    private long checkNeighbours(Room room) {
+        for (int d = 0; d < 4; d++) {
+            Room exit = room.getExit(d);
+            int neighbour = exit == null ? -1 : getId(exit);
+            if (neighbour >= 0) {
+                // One step back from the neighbour through exit d
+                return Pair.pack(Pair.unpackX(coords[neighbour]) - DX[d],
+                        Pair.unpackY(coords[neighbour]) - DY[d]);
             }
         }
         // If room has no known neighbours, give it coordinate (0,0).
-        coords.put(room, new Pair(0, 0));
+        return Pair.pack(0, 0);
+    }
+
+    /**
+     * Coordinates of a room
+     *
+     * @param room room to look up
+     * @return coordinates or null if room was not reached by the last walk
+     */
+    public Pair getCoord(Room room) {
+        int id = getId(room);
+        return id < 0 ? null : getCoord(id);
+    }
+
+    /**
+     * Coordinates of a room
+     *
+     * @param id id of the room
+     * @return coordinates
+     * @throws IndexOutOfBoundsException if id is not in [0, size())
+     */
+    public Pair getCoord(int id) {
+        return Pair.unpack(getPackedCoord(id));
+    }
+
+    /**
+     * Coordinates of a room without creating a Pair
+     *
+     * @param id id of the room
+     * @return coordinates packed with Pair.pack
+     * @throws IndexOutOfBoundsException if id is not in [0, size())
+     */
+    public long getPackedCoord(int id) {
+        if (id < 0 || id >= size()) {
+            throw new IndexOutOfBoundsException("No room " + id);
+        }
+        return coords[id];
+    }
+
+    /**
+     * Which room is at a coordinate?
+     * If several rooms have the same coordinates the first one placed
+     * is returned.
+     *
+     * @param x x coordinate
+     * @param y y coordinate
+     * @return the room or null if there is none
+     */
+    public Room getRoomAt(int x, int y) {
+        int id = roomsAt.get(Pair.pack(x, y), -1);
+        return id < 0 ? null : getRoom(id);
+    }
+
+    /**
+     * Lay out the map using every core of the common ForkJoin pool.
+     * See walkParallel(ForkJoinPool).
+     */
+    public void walkParallel() {
+        walkParallel(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Lay out the map in parallel. Gives the same coordinates as walk()
+     * for maps whose cardinal exits are consistent (as made by
+     * Room.makeExitPair). Rather than piling up at (0,0), groups of rooms
+     * joined to the rest only by non-cardinal exits are placed side by
+     * side to the east of the root's group.
+     * <p>
+     * Rooms are numbered by a normal walk and then split into regions of
+     * consecutive ids. Each region is laid out on its own relative to its
+     * first room, one region per task. The regions (or connected pieces
+     * of them) are then joined up through the exits between them.
+     *
+     * @param pool pool to run the region layouts on
+     */
+    public void walkParallel(ForkJoinPool pool) {
+        indexOnly = true;
+        try {
+            walk();
+        } finally {
+            indexOnly = false;
+        }
+        int n = size();
+        if (coords.length < n) {
+            coords = new long[n];
+        }
+        int regionSize = Math.max(MIN_REGION_SIZE,
+                n / (pool.getParallelism() * 4) + 1);
+        int regionCount = (n + regionSize - 1) / regionSize;
+        // Neighbour id through each cardinal exit (or -1), 4 per room
+        int[] neighbours = new int[4 * n];
+        // Piece of its region each room belongs to
+        int[] piece = new int[n];
+        int[] pieceCounts = new int[regionCount];
+        // Rooms with an exit to another region, packed as room * 4 + exit
+        int[][] crossings = new int[regionCount][];
+        inParallel(pool, regionCount, region -> {
+            int from = region * regionSize;
+            int to = Math.min(n, from + regionSize);
+            pieceCounts[region] = layoutRegion(from, to, neighbours, piece);
+            crossings[region] = findCrossings(from, to, neighbours, piece);
+        });
+
+        // Number the pieces of all regions together
+        int[] firstPiece = new int[regionCount + 1];
+        for (int region = 0; region < regionCount; region++) {
+            firstPiece[region + 1] = firstPiece[region] + pieceCounts[region];
+        }
+        inParallel(pool, regionCount, region -> {
+            int from = region * regionSize;
+            int to = Math.min(n, from + regionSize);
+            for (int id = from; id < to; id++) {
+                piece[id] += firstPiece[region];
+            }
+        });
+
+        int[] group = new int[firstPiece[regionCount]];
+        long[] offsets = joinPieces(piece, group, neighbours, crossings);
+        inParallel(pool, regionCount, region -> {
+            int from = region * regionSize;
+            int to = Math.min(n, from + regionSize);
+            for (int id = from; id < to; id++) {
+                coords[id] = add(offsets[piece[id]], coords[id]);
+            }
+        });
+        separateGroups(piece, group);
+
+        roomsAt.clear();
+        xMin = xMax = yMin = yMax = 0;
+        for (int id = 0; id < n; id++) {
+            roomsAt.putIfAbsent(coords[id], id);
+            int x = Pair.unpackX(coords[id]);
+            int y = Pair.unpackY(coords[id]);
+            xMax = (x > xMax) ? x : xMax;
+            xMin = (x < xMin) ? x : xMin;
+            yMax = (y > yMax) ? y : yMax;
+            yMin = (y < yMin) ? y : yMin;
+        }
+    }
+
+    /**
+     * Run task(0) ... task(count - 1) in parallel and wait for them all
+     *
+     * @param pool  pool to run the tasks on
+     * @param count number of tasks
+     * @param task  the task
+     */
+    private static void inParallel(ForkJoinPool pool, int count,
+                                   IntConsumer task) {
+        pool.submit(() -> IntStream.range(0, count).parallel().forEach(task))
+                .join();
+    }
+
+    /**
+     * Add two packed coordinates
+     *
+     * @param a first coordinate
+     * @param b second coordinate
+     * @return packed sum
+     */
+    private static long add(long a, long b) {
+        return Pair.pack(Pair.unpackX(a) + Pair.unpackX(b),
+                Pair.unpackY(a) + Pair.unpackY(b));
+    }
+
+    /**
+     * Lay out the rooms with ids in [from, to) using only exits between
+     * them. Each connected piece of the region is laid out relative to
+     * its lowest numbered room, which is put at (0,0).
+     *
+     * @param from       first room id in the region
+     * @param to         one past the last room id in the region
+     * @param neighbours filled in with the region's cardinal neighbours
+     * @param piece      filled in with each room's piece (from 0)
+     * @return number of pieces in the region
+     */
+    private int layoutRegion(int from, int to, int[] neighbours, int[] piece) {
+        for (int id = from; id < to; id++) {
+            Room room = getRoom(id);
+            for (int d = 0; d < 4; d++) {
+                Room neighbour = room.getExit(d);
+                neighbours[4 * id + d] =
+                        neighbour == null ? -1 : getId(neighbour);
+            }
+            piece[id] = -1;
+        }
+        int pieces = 0;
+        int[] queue = new int[to - from];
+        for (int seed = from; seed < to; seed++) {
+            if (piece[seed] >= 0) {
+                continue;
+            }
+            piece[seed] = pieces;
+            coords[seed] = Pair.pack(0, 0);
+            int head = 0;
+            int tail = 0;
+            queue[tail++] = seed;
+            while (head < tail) {
+                int id = queue[head++];
+                for (int d = 0; d < 4; d++) {
+                    int next = neighbours[4 * id + d];
+                    if (next >= from && next < to && piece[next] < 0) {
+                        piece[next] = pieces;
+                        coords[next] = Pair.pack(
+                                Pair.unpackX(coords[id]) + DX[d],
+                                Pair.unpackY(coords[id]) + DY[d]);
+                        queue[tail++] = next;
+                    }
+                }
+            }
+            pieces++;
+        }
+        return pieces;
+    }
+
+    /**
+     * Find the cardinal exits from the rooms with ids in [from, to) which
+     * lead out of the region, or to another piece of it (one way exits
+     * can split a region into pieces which still have exits between them)
+     *
+     * @param from       first room id in the region
+     * @param to         one past the last room id in the region
+     * @param neighbours cardinal neighbours of each room
+     * @param piece      piece of each room in the region
+     * @return exits found, each packed as room id * 4 + exit number
+     */
+    private static int[] findCrossings(int from, int to, int[] neighbours,
+                                       int[] piece) {
+        int[] found = new int[16];
+        int count = 0;
+        for (int i = 4 * from; i < 4 * to; i++) {
+            int next = neighbours[i];
+            if (next >= 0 && (next < from || next >= to
+                    || piece[next] != piece[i / 4])) {
+                if (count == found.length) {
+                    found = Arrays.copyOf(found, count * 2);
+                }
+                found[count++] = i;
+            }
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    /**
+     * Work out where each piece goes relative to the others by following
+     * the exits between pieces. Pieces which can reach each other this
+     * way form a group. Each group is placed relative to its lowest
+     * numbered piece (the root's group has the root at (0,0)).
+     * If exits disagree about where a piece goes, the first one wins.
+     *
+     * @param piece      piece of each room (numbered across all regions)
+     * @param group      filled in with the group of each piece
+     * @param neighbours cardinal neighbours of each room
+     * @param crossings  exits between regions, as room id * 4 + exit number
+     * @return offset of each piece (packed)
+     */
+    private long[] joinPieces(int[] piece, int[] group, int[] neighbours,
+                              int[][] crossings) {
+        int pieces = group.length;
+        // Exits out of each piece, in the same layout as a CSR graph
+        int[] start = new int[pieces + 2];
+        for (int[] region : crossings) {
+            for (int exit : region) {
+                start[piece[exit / 4] + 2]++;
+                start[piece[neighbours[exit]] + 2]++;
+            }
+        }
+        for (int p = 0; p < pieces; p++) {
+            start[p + 2] += start[p + 1];
+        }
+        // Each entry is an exit, negated (minus one) if followed backwards
+        int[] edges = new int[start[pieces + 1]];
+        for (int[] region : crossings) {
+            for (int exit : region) {
+                edges[start[piece[exit / 4] + 1]++] = exit;
+                edges[start[piece[neighbours[exit]] + 1]++] = -exit - 1;
+            }
+        }
+
+        long[] offsets = new long[pieces];
+        boolean[] placed = new boolean[pieces];
+        int[] queue = new int[pieces];
+        int groups = 0;
+        for (int seed = 0; seed < pieces; seed++) {
+            if (placed[seed]) {
+                continue;
+            }
+            placed[seed] = true;
+            group[seed] = groups;
+            offsets[seed] = Pair.pack(0, 0);
+            int head = 0;
+            int tail = 0;
+            queue[tail++] = seed;
+            while (head < tail) {
+                int p = queue[head++];
+                for (int e = start[p]; e < start[p + 1]; e++) {
+                    int exit = edges[e] >= 0 ? edges[e] : -edges[e] - 1;
+                    int from = exit / 4;
+                    int to = neighbours[exit];
+                    int d = exit % 4;
+                    int sign = edges[e] >= 0 ? 1 : -1;
+                    if (sign < 0) {
+                        int swap = from;
+                        from = to;
+                        to = swap;
+                    }
+                    int next = piece[to];
+                    if (!placed[next]) {
+                        // Where from is, plus one step, minus where to is
+                        long at = add(offsets[p], coords[from]);
+                        offsets[next] = Pair.pack(
+                                Pair.unpackX(at) + sign * DX[d]
+                                        - Pair.unpackX(coords[to]),
+                                Pair.unpackY(at) + sign * DY[d]
+                                        - Pair.unpackY(coords[to]));
+                        placed[next] = true;
+                        group[next] = groups;
+                        queue[tail++] = next;
+                    }
+                }
+            }
+            groups++;
+        }
+        return offsets;
+    }
+
+    /**
+     * Move every group except the root's so that it sits to the east of
+     * the groups before it, aligned with the top of the root's group.
+     *
+     * @param piece piece of each room
+     * @param group group of each piece
+     */
+    private void separateGroups(int[] piece, int[] group) {
+        int groups = 0;
+        for (int g : group) {
+            groups = Math.max(groups, g + 1);
+        }
+        if (groups <= 1) {
+            return;
+        }
+        int[] minX = new int[groups];
+        int[] maxX = new int[groups];
+        int[] minY = new int[groups];
+        Arrays.fill(minX, Integer.MAX_VALUE);
+        Arrays.fill(maxX, Integer.MIN_VALUE);
+        Arrays.fill(minY, Integer.MAX_VALUE);
+        for (int id = 0; id < size(); id++) {
+            int g = group[piece[id]];
+            int x = Pair.unpackX(coords[id]);
+            minX[g] = Math.min(minX[g], x);
+            maxX[g] = Math.max(maxX[g], x);
+            minY[g] = Math.min(minY[g], Pair.unpackY(coords[id]));
+        }
+        long[] shifts = new long[groups];
+        // Leave an empty column between groups
+        int nextX = maxX[0] + 2;
+        for (int g = 1; g < groups; g++) {
+            shifts[g] = Pair.pack(nextX - minX[g], minY[0] - minY[g]);
+            nextX += maxX[g] - minX[g] + 2;
+        }
+        for (int id = 0; id < size(); id++) {
+            coords[id] = add(coords[id], shifts[group[piece[id]]]);
+        }
     }
 
     /**
@@ -96,7 +472,7 @@ public class BoundsMapper extends MapWalker {
     @Override
     public void reset() {
         super.reset();
-        coords.clear();
+        roomsAt.clear();
         xMin = xMax = yMin = yMax = 0;
     }
 }
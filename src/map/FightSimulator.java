@@ -0,0 +1,102 @@
+package map;
+
+import things.Critter;
+import things.Explorer;
+import utils.Combat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Work out how an explorer would do against every critter on a map, for
+ * balance testing. Nothing on the map is changed: each fight starts from
+ * the explorer's current health and is worked out with Combat.
+ */
+public final class FightSimulator {
+
+    /**
+     * How one fight would go
+     */
+    public static final class Result {
+        // Room the critter is in
+        public final Room room;
+        // The critter
+        public final Critter critter;
+        // Health of the explorer (attacker) and critter afterwards
+        public final Combat.Outcome outcome;
+
+        /**
+         * Constructor
+         *
+         * @param room    room the critter is in
+         * @param critter the critter
+         * @param outcome health of the explorer and critter afterwards
+         */
+        Result(Room room, Critter critter, Combat.Outcome outcome) {
+            this.room = room;
+            this.critter = critter;
+            this.outcome = outcome;
+        }
+    }
+
+    /**
+     * Not instantiable
+     */
+    private FightSimulator() {
+    }
+
+    /**
+     * Fight the explorer against every critter reachable from start,
+     * using every core of the common ForkJoin pool.
+     *
+     * @param start    room to begin exploring from
+     * @param explorer explorer to fight with (not changed)
+     * @return a result for each critter, in walk order
+     */
+    public static List<Result> simulate(Room start, Explorer explorer) {
+        return simulate(start, explorer, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Fight the explorer against every critter reachable from start.
+     * Rooms are found with a single walk, then their critters are fought
+     * in parallel.
+     *
+     * @param start    room to begin exploring from
+     * @param explorer explorer to fight with (not changed)
+     * @param pool     pool to fight in
+     * @return a result for each critter, in walk order
+     * (critters in the same room in the order they entered)
+     */
+    public static List<Result> simulate(Room start, Explorer explorer,
+                                        ForkJoinPool pool) {
+        RoomIndex index = new RoomIndex(start);
+        index.walk();
+        int health = explorer.getHealth();
+        int damage = explorer.getDamage();
+        Result[][] byRoom = new Result[index.size()][];
+        pool.submit(() -> IntStream.range(0, index.size()).parallel()
+                .forEach(id -> {
+                    Room room = index.getRoom(id);
+                    List<Critter> critters = room.getContents(Critter.class);
+                    Result[] results = new Result[critters.size()];
+                    for (int i = 0; i < results.length; i++) {
+                        Critter critter = critters.get(i);
+                        results[i] = new Result(room, critter,
+                                Combat.resolve(health, damage,
+                                        critter.getHealth(),
+                                        critter.getDamage()));
+                    }
+                    byRoom[id] = results;
+                })).join();
+        List<Result> results = new ArrayList<>();
+        for (Result[] room : byRoom) {
+            for (Result result : room) {
+                results.add(result);
+            }
+        }
+        return results;
+    }
+}
@@ -0,0 +1,80 @@
+package map;
+
+import things.ThingIndex;
+
+/**
+ * Running totals of the loot value of a whole map.
+ * <p>
+ * Built with one walk of the map; after that every room reports changes
+ * to its value as they happen (things entering or leaving, critters
+ * fainting or reviving), so the totals are always current and reading
+ * them takes constant time. Rooms joined to the map later are not
+ * counted. A room reports to one LootTotals at a time: the newest.
+ * <p>
+ * Thread safe.
+ */
+public class LootTotals implements ThingIndex.ValueListener {
+    // Total value of the Lootable things on the map
+    private double value;
+    // Total value of the things an explorer could take now
+    private double lootValue;
+    // Number of rooms counted
+    private int rooms;
+
+    /**
+     * Constructor. Starts counting every room reachable from root.
+     *
+     * @param root room to begin exploring from
+     */
+    public LootTotals(Room root) {
+        RoomIndex index = new RoomIndex(root);
+        index.walk();
+        rooms = index.size();
+        for (int id = 0; id < rooms; id++) {
+            index.getRoom(id).setValueListener(this);
+        }
+    }
+
+    /**
+     * Add a room's change in value to the totals
+     *
+     * @param valueChange     change in the value of all Lootable things
+     * @param lootValueChange change in the value of those which can be
+     *                        taken now
+     */
+    @Override
+    public synchronized void valueChanged(double valueChange,
+                                          double lootValueChange) {
+        value += valueChange;
+        lootValue += lootValueChange;
+    }
+
+    /**
+     * Total value of the Lootable things in the rooms
+     * (not counting what explorers are carrying)
+     *
+     * @return the total
+     */
+    public synchronized double getValue() {
+        return value;
+    }
+
+    /**
+     * Total value of the things in the rooms which an explorer could take
+     * now (everything except critters which have not fainted)
+     *
+     * @return the total
+     */
+    public synchronized double getLootValue() {
+        return lootValue;
+    }
+
+    /**
+     * Number of rooms counted
+     *
+     * @return room count
+     */
+    public int getRoomCount() {
+        return rooms;
+    }
+}
@@ -0,0 +1,477 @@
+package map;
+
+import things.Critter;
+import things.Explorer;
+import things.Thing;
+import things.Treasure;
+import utils.Lootable;
+import utils.Mob;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A map reachable from a root, copied into flat arrays for whole map
+ * queries.
+ * <p>
+ * Rooms have dense ids in walk order (see RoomIndex). The exits of room
+ * id are exit numbers exitStart(id) to exitEnd(id) - 1, with the target
+ * room id and direction code of each kept in parallel arrays, and the
+ * exits into each room are kept the same way. The things in the rooms
+ * are numbered the same way again, with their kind, value and health in
+ * parallel arrays. Queries read the arrays in order instead of following
+ * references from room to room.
+ * <p>
+ * Each room is copied while holding its lock, but rooms are copied one
+ * at a time, so changes made elsewhere during the copy may be partly
+ * seen. Exits to rooms added after the walk are left out. Later changes
+ * to the map are not seen. Immutable, so thread safe.
+ */
+public final class MapGraph {
+    /**
+     * Kinds of thing, as kept for each thing
+     */
+    public enum Kind {
+        TREASURE,
+        CRITTER,
+        EXPLORER,
+        // Any other kind of Thing
+        OTHER
+    }
+
+    // Direction code of exits which are not North, South, East or West
+    public static final int OTHER_DIRECTION = -1;
+
+    // Kinds in code order
+    private static final Kind[] KINDS = Kind.values();
+
+    // Numbers the rooms
+    private final RoomIndex index;
+    // Exits of room id are exitTargets[exitStarts[id] .. exitStarts[id+1])
+    // (read directly by Pathfinder)
+    final int[] exitStarts;
+    final int[] exitTargets;
+    // Index into Room.DIRECTIONS of each exit (OTHER_DIRECTION if none)
+    private final byte[] exitDirections;
+    // Exits with other labels, in exit order, and their labels
+    private final int[] otherExits;
+    private final String[] otherLabels;
+    // Rooms with an exit to room id are entryRooms[entryStarts[id] ..]
+    // (read directly by Pathfinder)
+    final int[] entryStarts;
+    final int[] entryRooms;
+    // Things in room id are things[thingStarts[id] .. thingStarts[id+1])
+    private final int[] thingStarts;
+    private final Thing[] things;
+    // Kind.ordinal() of each thing
+    private final byte[] thingKinds;
+    // Lootable value of each thing (0 if not Lootable)
+    private final double[] thingValues;
+    // Health of each thing (0 if not a Mob)
+    private final int[] thingHealth;
+
+    /**
+     * Constructor. Copies every room reachable from root.
+     *
+     * @param root room to begin exploring from (id 0)
+     */
+    public MapGraph(Room root) {
+        this(walk(root));
+    }
+
+    /**
+     * Constructor. Copies the rooms numbered by a walked index.
+     *
+     * @param index numbers the rooms. It must not be walked again.
+     */
+    MapGraph(RoomIndex index) {
+        this.index = index;
+        int size = index.size();
+        exitStarts = new int[size + 1];
+        thingStarts = new int[size + 1];
+        int[] targets = new int[Math.max(16, size * 2)];
+        byte[] directions = new byte[targets.length];
+        int[] others = new int[16];
+        String[] labels = new String[16];
+        List<Thing> contents = new ArrayList<>();
+        int exits = 0;
+        int otherCount = 0;
+        for (int id = 0; id < size; id++) {
+            Room room = index.getRoom(id);
+            exitStarts[id] = exits;
+            thingStarts[id] = contents.size();
+            synchronized (room.lock()) {
+                for (int direction = 0; direction < 4; direction++) {
+                    Room neighbour = room.getExit(direction);
+                    int target =
+                            neighbour == null ? -1 : index.getId(neighbour);
+                    if (target >= 0) {
+                        if (exits == targets.length) {
+                            targets = Arrays.copyOf(targets, exits * 2);
+                            directions = Arrays.copyOf(directions, exits * 2);
+                        }
+                        targets[exits] = target;
+                        directions[exits] = (byte) direction;
+                        exits++;
+                    }
+                }
+                for (Map.Entry<String, Room> exit
+                        : room.getOtherExits().entrySet()) {
+                    int target = index.getId(exit.getValue());
+                    if (target < 0) {
+                        continue;
+                    }
+                    if (exits == targets.length) {
+                        targets = Arrays.copyOf(targets, exits * 2);
+                        directions = Arrays.copyOf(directions, exits * 2);
+                    }
+                    if (otherCount == others.length) {
+                        others = Arrays.copyOf(others, otherCount * 2);
+                        labels = Arrays.copyOf(labels, otherCount * 2);
+                    }
+                    others[otherCount] = exits;
+                    labels[otherCount] = exit.getKey();
+                    otherCount++;
+                    targets[exits] = target;
+                    directions[exits] = (byte) OTHER_DIRECTION;
+                    exits++;
+                }
+                contents.addAll(room.getContents());
+            }
+        }
+        exitStarts[size] = exits;
+        thingStarts[size] = contents.size();
+        exitTargets = Arrays.copyOf(targets, exits);
+        exitDirections = Arrays.copyOf(directions, exits);
+        otherExits = Arrays.copyOf(others, otherCount);
+        otherLabels = Arrays.copyOf(labels, otherCount);
+
+        // Invert the exits: count entries into each room, then fill
+        entryStarts = new int[size + 1];
+        for (int target : exitTargets) {
+            entryStarts[target + 1]++;
+        }
+        for (int id = 0; id < size; id++) {
+            entryStarts[id + 1] += entryStarts[id];
+        }
+        entryRooms = new int[exits];
+        int[] next = Arrays.copyOf(entryStarts, size);
+        for (int id = 0; id < size; id++) {
+            for (int i = exitStarts[id]; i < exitStarts[id + 1]; i++) {
+                entryRooms[next[exitTargets[i]]++] = id;
+            }
+        }
+
+        things = contents.toArray(new Thing[0]);
+        thingKinds = new byte[things.length];
+        thingValues = new double[things.length];
+        thingHealth = new int[things.length];
+        for (int i = 0; i < things.length; i++) {
+            Thing thing = things[i];
+            thingKinds[i] = (byte) kindOf(thing).ordinal();
+            if (thing instanceof Lootable) {
+                thingValues[i] = ((Lootable) thing).getValue();
+            }
+            if (thing instanceof Mob) {
+                thingHealth[i] = ((Mob) thing).getHealth();
+            }
+        }
+    }
+
+    /**
+     * Number the rooms reachable from root
+     *
+     * @param root room to begin exploring from
+     * @return the walked index
+     */
+    private static RoomIndex walk(Room root) {
+        RoomIndex index = new RoomIndex(root);
+        index.walk();
+        return index;
+    }
+
+    /**
+     * Kind of a thing
+     *
+     * @param thing the thing
+     * @return its kind
+     */
+    private static Kind kindOf(Thing thing) {
+        if (thing instanceof Treasure) {
+            return Kind.TREASURE;
+        } else if (thing instanceof Critter) {
+            return Kind.CRITTER;
+        } else if (thing instanceof Explorer) {
+            return Kind.EXPLORER;
+        }
+        return Kind.OTHER;
+    }
+
+    /**
+     * Number of rooms
+     *
+     * @return room count
+     */
+    public int size() {
+        return exitStarts.length - 1;
+    }
+
+    /**
+     * Room with a given id
+     *
+     * @param id id to look up
+     * @return the room
+     * @throws IndexOutOfBoundsException if id is not in [0, size())
+     */
+    public Room getRoom(int id) {
+        return index.getRoom(id);
+    }
+
+    /**
+     * Id of a room
+     *
+     * @param room room to look up
+     * @return id of room or -1 if it is not in the graph
+     */
+    public int getId(Room room) {
+        return index.getId(room);
+    }
+
+    /**
+     * Number of exits from all rooms
+     *
+     * @return exit count
+     */
+    public int exitCount() {
+        return exitTargets.length;
+    }
+
+    /**
+     * First exit number of a room
+     *
+     * @param id room id
+     * @return exit number
+     */
+    public int exitStart(int id) {
+        return exitStarts[id];
+    }
+
+    /**
+     * One past the last exit number of a room
+     *
+     * @param id room id
+     * @return exit number
+     */
+    public int exitEnd(int id) {
+        return exitStarts[id + 1];
+    }
+
+    /**
+     * Room an exit goes to
+     *
+     * @param exit exit number
+     * @return room id
+     */
+    public int exitTarget(int exit) {
+        return exitTargets[exit];
+    }
+
+    /**
+     * Direction of an exit
+     *
+     * @param exit exit number
+     * @return index into Room.DIRECTIONS, or OTHER_DIRECTION
+     */
+    public int exitDirection(int exit) {
+        return exitDirections[exit];
+    }
+
+    /**
+     * Label of an exit
+     *
+     * @param exit exit number
+     * @return the label
+     */
+    public String exitLabel(int exit) {
+        int direction = exitDirections[exit];
+        if (direction != OTHER_DIRECTION) {
+            return Room.DIRECTIONS.get(direction);
+        }
+        return otherLabels[Arrays.binarySearch(otherExits, exit)];
+    }
+
+    /**
+     * Room through a cardinal exit
+     *
+     * @param id        room id
+     * @param direction index into Room.DIRECTIONS
+     * @return id of the room it goes to, or -1 if there is no such exit
+     */
+    public int neighbour(int id, int direction) {
+        for (int i = exitStarts[id]; i < exitStarts[id + 1]; i++) {
+            if (exitDirections[i] == direction) {
+                return exitTargets[i];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * First entry number of a room (entries are exits into the room)
+     *
+     * @param id room id
+     * @return entry number
+     */
+    public int entryStart(int id) {
+        return entryStarts[id];
+    }
+
+    /**
+     * One past the last entry number of a room
+     *
+     * @param id room id
+     * @return entry number
+     */
+    public int entryEnd(int id) {
+        return entryStarts[id + 1];
+    }
+
+    /**
+     * Room an entry comes from
+     *
+     * @param entry entry number
+     * @return room id
+     */
+    public int entryRoom(int entry) {
+        return entryRooms[entry];
+    }
+
+    /**
+     * Number of things in all rooms
+     *
+     * @return thing count
+     */
+    public int thingCount() {
+        return things.length;
+    }
+
+    /**
+     * First thing number of a room
+     *
+     * @param id room id
+     * @return thing number
+     */
+    public int thingStart(int id) {
+        return thingStarts[id];
+    }
+
+    /**
+     * One past the last thing number of a room
+     *
+     * @param id room id
+     * @return thing number
+     */
+    public int thingEnd(int id) {
+        return thingStarts[id + 1];
+    }
+
+    /**
+     * A thing
+     *
+     * @param thing thing number
+     * @return the thing
+     */
+    public Thing getThing(int thing) {
+        return things[thing];
+    }
+
+    /**
+     * Kind of a thing
+     *
+     * @param thing thing number
+     * @return its kind
+     */
+    public Kind thingKind(int thing) {
+        return KINDS[thingKinds[thing]];
+    }
+
+    /**
+     * Value of a thing when copied
+     *
+     * @param thing thing number
+     * @return its value (0 if it is not Lootable)
+     */
+    public double thingValue(int thing) {
+        return thingValues[thing];
+    }
+
+    /**
+     * Health of a thing when copied
+     *
+     * @param thing thing number
+     * @return its health (0 if it is not a Mob)
+     */
+    public int thingHealth(int thing) {
+        return thingHealth[thing];
+    }
+
+    /**
+     * Number of things of a kind in all rooms
+     *
+     * @param kind kind to count
+     * @return the count
+     */
+    public int count(Kind kind) {
+        byte code = (byte) kind.ordinal();
+        int count = 0;
+        for (byte thingKind : thingKinds) {
+            if (thingKind == code) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Total value of the Lootable things in all rooms
+     * (not counting what explorers are carrying)
+     *
+     * @return the total
+     */
+    public double getValue() {
+        double value = 0;
+        for (double thingValue : thingValues) {
+            value += thingValue;
+        }
+        return value;
+    }
+
+    /**
+     * Number of exits from a room to every room, by breadth first search
+     *
+     * @param from room id to start from
+     * @return exits to take to each room id (-1 if it cannot be reached)
+     */
+    public int[] distances(int from) {
+        int[] distance = new int[size()];
+        Arrays.fill(distance, -1);
+        int[] queue = new int[size()];
+        int head = 0;
+        int tail = 0;
+        distance[from] = 0;
+        queue[tail++] = from;
+        while (head < tail) {
+            int room = queue[head++];
+            for (int i = exitStarts[room]; i < exitStarts[room + 1]; i++) {
+                int next = exitTargets[i];
+                if (distance[next] < 0) {
+                    distance[next] = distance[room] + 1;
+                    queue[tail++] = next;
+                }
+            }
+        }
+        return distance;
+    }
+}
@@ -1,14 +1,38 @@
 package map;
 
 import things.*;
+import utils.Descriptions;
+import utils.Progress;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 /**
  * Static routines to save and load Rooms
+ * <p>
+ * Map text (saveMap and loadMap) may be compressed with GZIP. Compressed
+ * files are recognised by their first bytes when read (raw zlib streams
+ * are read too), and are compressed and decompressed as they are streamed
+ * rather than held in memory.
  */
 public class MapIO {
+    // Files whose names end with this are compressed by saveMap
+    public static final String COMPRESSED_EXTENSION = ".gz";
+    // Compression level for saveMap which writes plain text
+    public static final int NOT_COMPRESSED = -2;
+
+    // Rooms read between progress reports
+    private static final int PROGRESS_STEP = 1024;
+    // Bytes buffered at each stage of reading or writing map text
+    private static final int BUFFER_SIZE = 1 << 16;
 
     /**
      * Constructor
@@ -18,6 +42,8 @@ public class MapIO {
 
     /**
      * Write rooms to a new file (using Java serialisation)
+     * Note: serialisation recurses through exits so long corridors can
+     * overflow the stack. saveBinaryMap does not have this problem.
      *
      * @param root     Start room to explore from
      * @param filename Filename to write to
@@ -67,7 +93,8 @@ public class MapIO {
     }
 
     /**
-     * Write Rooms to a new file (using encoded String form)
+     * Write Rooms to a new file (using encoded String form). The file is
+     * compressed if filename ends with COMPRESSED_EXTENSION.
      *
      * @param root     Start room
      * @param filename Filename to write to
@@ -76,41 +103,59 @@ public class MapIO {
      * (appearing exactly once).
      */
     public static boolean saveMap(Room root, String filename) {
-        BoundsMapper mapper = new BoundsMapper(root);
-        mapper.walk();
-        ArrayList<Room> list = new ArrayList<>();
-        for (Room room : mapper.coords.keySet()) {
-            if (room.equals(root)) {
-                list.add(0, room);
-            } else list.add(room);
-        }
+        return saveMap(root, filename, compressionFor(filename));
+    }
+
+    /**
+     * Write Rooms to a new file (using encoded String form)
+     *
+     * @param root     Start room
+     * @param filename Filename to write to
+     * @param level    GZIP compression level (0 to 9, or
+     *                 Deflater.DEFAULT_COMPRESSION), or NOT_COMPRESSED
+     *                 for plain text
+     * @return true if successful (false if level is not valid)
+     * @require There is exactly one player object anywhere in the map
+     * (appearing exactly once).
+     */
+    public static boolean saveMap(Room root, String filename, int level) {
+        // Rooms are written in walk order, so the root is always first
+        RoomIndex index = new RoomIndex(root);
+        index.walk();
         Writer writer = null;
         try {
-            writer = new BufferedWriter(new OutputStreamWriter(
-                    new FileOutputStream(filename), "UTF-8"));
-            writer.write(Integer.toString(mapper.coords.size()));
-            String newLine = System.lineSeparator();
-            writer.write(newLine);
-            for (Room writeDescriptions : list) {
-                writer.write(writeDescriptions.getDescription() + newLine);
-            }
-            for (Room writeExits : list) {
-                writer.write(Integer.toString(writeExits.getExits().size()));
-                writer.write(newLine);
-                for (String exit : writeExits.getExits().keySet()) {
-                    writer.write(String.format("%d %s%s",
-                            list.indexOf(writeExits.getExits().get(exit)),
-                            exit, newLine));
+            writer = textWriter(filename, level);
+            writeMapText(writer, new TextRooms() {
+                @Override
+                public int size() {
+                    return index.size();
                 }
-            }
-            for (Room writeItems : list) {
-                writer.write(Integer.toString(
-                        writeItems.getContents().size()));
-                writer.write(newLine);
-                for (Thing item : writeItems.getContents()) {
-                    writer.write(item.repr() + newLine);
+
+                @Override
+                public String getDescription(int id) {
+                    return index.getRoom(id).getDescription();
                 }
-            }
+
+                @Override
+                public Map<String, Room> getExits(int id) {
+                    return index.getRoom(id).getExits();
+                }
+
+                @Override
+                public int getId(Room room) {
+                    return index.getId(room);
+                }
+
+                @Override
+                public String[] getContents(int id) {
+                    List<Thing> things = index.getRoom(id).getContents();
+                    String[] contents = new String[things.size()];
+                    for (int i = 0; i < contents.length; i++) {
+                        contents[i] = things.get(i).repr();
+                    }
+                    return contents;
+                }
+            }, Progress.NONE, 0, index.size());
             return true;
         } catch (Exception e) {
             return false;
@@ -124,28 +169,201 @@ public class MapIO {
         }
     }
 
+    /**
+     * Rooms to be written as map text, numbered from 0 (the start room)
+     */
+    interface TextRooms {
+        /**
+         * Number of rooms
+         *
+         * @return room count
+         */
+        int size();
+
+        /**
+         * Description of a room
+         *
+         * @param id id of the room
+         * @return its description
+         */
+        String getDescription(int id);
+
+        /**
+         * Exits of a room
+         *
+         * @param id id of the room
+         * @return names of the exits and the rooms they go to
+         */
+        Map<String, Room> getExits(int id);
+
+        /**
+         * Id of a room an exit goes to
+         *
+         * @param room the room
+         * @return its id
+         */
+        int getId(Room room);
+
+        /**
+         * Contents of a room
+         *
+         * @param id id of the room
+         * @return encoded contents (see Thing.repr)
+         */
+        String[] getContents(int id);
+    }
+
+    /**
+     * Write rooms as map text (the form saveMap writes and loadMap reads):
+     * the number of rooms, then every description, every room's exits and
+     * every room's contents
+     *
+     * @param writer   where to write
+     * @param rooms    the rooms
+     * @param progress told as the contents of the rooms are written, one
+     *                 unit of work per room
+     * @param done     work done before this was called
+     * @param total    work in all
+     * @return true if written, false if cancelled by progress
+     * @throws IOException if writer fails
+     */
+    static boolean writeMapText(Writer writer, TextRooms rooms,
+                                Progress progress, long done, long total)
+            throws IOException {
+        int size = rooms.size();
+        String newLine = System.lineSeparator();
+        // Reused to build each line before it is written
+        StringBuilder line = new StringBuilder();
+        line.append(size).append(newLine);
+        writer.append(line);
+        for (int id = 0; id < size; id++) {
+            writer.write(rooms.getDescription(id));
+            writer.write(newLine);
+        }
+        for (int id = 0; id < size; id++) {
+            Map<String, Room> exits = rooms.getExits(id);
+            line.setLength(0);
+            line.append(exits.size()).append(newLine);
+            for (Map.Entry<String, Room> exit : exits.entrySet()) {
+                line.append(rooms.getId(exit.getValue())).append(' ')
+                        .append(exit.getKey()).append(newLine);
+            }
+            writer.append(line);
+        }
+        for (int id = 0; id < size; id++) {
+            if (id % PROGRESS_STEP == 0
+                    && !progress.update(done + id, total)) {
+                return false;
+            }
+            String[] contents = rooms.getContents(id);
+            line.setLength(0);
+            line.append(contents.length).append(newLine);
+            writer.append(line);
+            for (String item : contents) {
+                writer.write(item);
+                writer.write(newLine);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compression level saveMap uses for a file by default
+     *
+     * @param filename name of the file
+     * @return Deflater.DEFAULT_COMPRESSION if filename ends with
+     * COMPRESSED_EXTENSION, otherwise NOT_COMPRESSED
+     */
+    static int compressionFor(String filename) {
+        return filename.endsWith(COMPRESSED_EXTENSION)
+                ? Deflater.DEFAULT_COMPRESSION : NOT_COMPRESSED;
+    }
+
+    /**
+     * Create a file to write map text to, compressing it if asked
+     *
+     * @param filename Filename to write to
+     * @param level    GZIP compression level, or NOT_COMPRESSED
+     * @return buffered UTF-8 writer (closing it closes the file)
+     * @throws IOException if the file cannot be created
+     * @throws IllegalArgumentException if level is not valid
+     */
+    static Writer textWriter(String filename, int level)
+            throws IOException {
+        if (level != NOT_COMPRESSED && (level < Deflater.DEFAULT_COMPRESSION
+                || level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("Bad level " + level);
+        }
+        OutputStream out = new FileOutputStream(filename);
+        try {
+            if (level != NOT_COMPRESSED) {
+                out = new GZIPOutputStream(out, BUFFER_SIZE) {
+                    {
+                        def.setLevel(level);
+                    }
+                };
+            }
+            return new BufferedWriter(
+                    new OutputStreamWriter(out, "UTF-8"), BUFFER_SIZE);
+        } catch (IOException e) {
+            out.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Open a file of map text, plain or compressed (GZIP or zlib,
+     * recognised by the first bytes)
+     *
+     * @param filename Filename to read from
+     * @return buffered UTF-8 reader (closing it closes the file)
+     * @throws IOException if the file cannot be opened, or is compressed
+     *                     but its header is malformed
+     */
+    static BufferedReader textReader(String filename) throws IOException {
+        InputStream in = new BufferedInputStream(
+                new FileInputStream(filename), BUFFER_SIZE);
+        try {
+            in.mark(2);
+            int first = in.read();
+            int second = in.read();
+            in.reset();
+            if (first == 0x1f && second == 0x8b) {
+                in = new GZIPInputStream(in, BUFFER_SIZE);
+            } else if (first == 0x78 && second >= 0
+                    && ((first << 8) | second) % 31 == 0) {
+                // zlib header (as written by Deflater). Plain map text
+                // starts with a digit, so never looks like one.
+                Inflater inflater = new Inflater();
+                in = new InflaterInputStream(in, inflater, BUFFER_SIZE) {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            inflater.end();
+                        }
+                    }
+                };
+            }
+            return new BufferedReader(
+                    new InputStreamReader(in, "UTF-8"), BUFFER_SIZE);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
     /**
      * Decode a String into a things.Thing.
-     * (Need to be able to decode, things.Treasure, things.Critter, Builder and things.Explorer)
+     * (Any type registered with things.ThingTypes can be decoded)
      *
      * @param encoded String to decode
      * @return Decoded things.Thing or null on failure.
      * (null arguments or incorrectly encoded input)
      */
     public static Thing decodeThing(String encoded) {
-        try {
-            switch (encoded.substring(0, 2)) {
-                case "E;":
-                    return Explorer.decode(encoded);
-                case "$;":
-                    return Treasure.decode(encoded);
-                case "C;":
-                    return Critter.decode(encoded);
-            }
-        } catch (Exception e) {
-            return null;
-        }
-        return null;
+        return ThingTypes.decode(encoded);
     }
 
     /**
@@ -157,39 +375,71 @@ public class MapIO {
      * and [1] being the start room.
      */
     public static Object[] loadMap(String filename) {
+        return loadMap(filename, Progress.NONE);
+    }
+
+    /**
+     * Read information from a file created with saveMap, reporting
+     * progress as it goes
+     *
+     * @param filename Filename to read from
+     * @param progress told as rooms are read (work in all is three times
+     *                 the number of rooms); can cancel the load
+     * @return null if unsuccessful or cancelled. If successful, an array
+     * of two Objects. [0] being the things.Player object (if found)
+     * and [1] being the start room.
+     */
+    public static Object[] loadMap(String filename, Progress progress) {
         BufferedReader in = null;
         int roomCounts, exitCounts, itemCounts;
         Object[] result = new Object[2];
         ArrayList<Room> rooms = new ArrayList<>();
         try {
-            in = new BufferedReader(new FileReader(filename));
+            in = textReader(filename);
             roomCounts = Integer.parseInt(in.readLine());
+            long total = 3L * roomCounts;
             for (int i = 0; i < roomCounts; i++) {
+                if (i % PROGRESS_STEP == 0 && !progress.update(i, total)) {
+                    return null;
+                }
                 rooms.add(new Room(in.readLine()));
             }
             result[1] = rooms.get(0);
-            for (Room room : rooms) {
+            for (int id = 0; id < roomCounts; id++) {
+                if (id % PROGRESS_STEP == 0
+                        && !progress.update(roomCounts + id, total)) {
+                    return null;
+                }
+                Room room = rooms.get(id);
                 exitCounts = Integer.parseInt(in.readLine());
                 for (int i = 0; i < exitCounts; i++) {
                     String[] exitPair = in.readLine().split(" ");
                     int roomIndex = Integer.parseInt(exitPair[0]);
-                    room.addExit(exitPair[1], rooms.get(roomIndex));
+                    // Labels repeat on almost every room, so are shared
+                    room.addExit(Descriptions.canonical(exitPair[1]),
+                            rooms.get(roomIndex));
                 }
             }
-            for (Room room : rooms) {
+            for (int id = 0; id < roomCounts; id++) {
+                if (id % PROGRESS_STEP == 0
+                        && !progress.update(2L * roomCounts + id, total)) {
+                    return null;
+                }
+                Room room = rooms.get(id);
                 itemCounts = Integer.parseInt(in.readLine());
                 for (int i = 0; i < itemCounts; i++) {
-                    String itemRepr = in.readLine();
-                    if (decodeThing(itemRepr) == null) {
+                    Thing item = decodeThing(in.readLine());
+                    if (item == null) {
                         return null;
                     }
-                    if (decodeThing(itemRepr) instanceof Explorer) {
-                        result[0] = decodeThing(itemRepr);
+                    if (item instanceof Explorer) {
+                        result[0] = item;
                     } else {
-                        room.enter(decodeThing(itemRepr));
+                        room.enter(item);
                     }
                 }
             }
+            progress.update(total, total);
             return result;
         } catch (Exception e) {
             return null;
@@ -202,4 +452,72 @@ public class MapIO {
             }
         }
     }
+
+    /**
+     * Write Rooms to a new file (using the compact binary form)
+     *
+     * @param root     Start room
+     * @param filename Filename to write to
+     * @return true if successful
+     * @require There is exactly one player object anywhere in the map
+     * (appearing exactly once).
+     */
+    public static boolean saveBinaryMap(Room root, String filename) {
+        OutputStream out = null;
+        try {
+            out = new BufferedOutputStream(new FileOutputStream(filename),
+                    1 << 16);
+            BinaryMapFormat.write(root, out);
+            return true;
+        } catch (Exception e) {
+            return false;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (Exception ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Read information from a file created with saveBinaryMap
+     *
+     * @param filename Filename to read from
+     * @return null if unsuccessful. If successful, an array of two Objects.
+     * [0] being the things.Player object (if found)
+     * and [1] being the start room.
+     */
+    public static Object[] loadBinaryMap(String filename) {
+        try {
+            return BinaryMapFormat.read(
+                    ByteBuffer.wrap(Files.readAllBytes(Paths.get(filename))));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Open a file created with saveBinaryMap without reading it all in.
+     * The file is memory mapped and each Room is only built when it is
+     * first reached through an exit. Its exits and contents are only
+     * decoded when they are first used.
+     *
+     * @param filename Filename to read from (at most 2GB)
+     * @return null if unsuccessful. If successful, an array of two Objects.
+     * [0] being the things.Player object (if found)
+     * and [1] being the start room.
+     */
+    public static Object[] loadMappedMap(String filename) {
+        try {
+            MappedMap map = new MappedMap(filename);
+            Object[] result = new Object[2];
+            result[0] = map.getPlayer();
+            result[1] = map.getRoom(0);
+            return result;
+        } catch (Exception e) {
+            return null;
+        }
+    }
 }
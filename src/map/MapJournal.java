@@ -0,0 +1,545 @@
+package map;
+
+import things.Explorer;
+import utils.Varint;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+import java.util.zip.CRC32;
+
+/**
+ * A map saved as a snapshot followed by a log of the rooms which changed
+ * since, so that saving costs time proportional to what changed rather
+ * than to the size of the map.
+ * <p>
+ * Layout (version 1). Numbers are Varints unless noted otherwise:
+ * <pre>
+ *   magic "CRWJ", version (1 byte)
+ *   snapshot byte length (8 byte long), snapshot (a binary map, see
+ *       BinaryMapFormat)
+ *   batches, one per save. Each is its byte length, its records, and the
+ *       CRC32 of its records (4 byte int). A record is one of
+ *       1, UTF-8 byte length, UTF-8 bytes:
+ *           the next string of the log's string table
+ *       2, room id, byte length, room record (as in BinaryMapFormat, with
+ *           strings from the log's string table):
+ *           the whole state of the room when it was saved
+ * </pre>
+ * Moving, taking, dropping, fighting and changing exits all show up as
+ * rooms whose state changed. Only the last record of each room is decoded
+ * on load. Ids after the snapshot's are rooms first reached since. A batch
+ * which was not completely written is ignored (and overwritten by the next
+ * save). Once the log is bigger than the snapshot the file is rewritten as
+ * a new snapshot.
+ * <p>
+ * A journal listens for changes to every room it knows about, so a map
+ * should only have one journal at a time.
+ */
+public class MapJournal implements AutoCloseable {
+    // Filename extension used for journals
+    public static final String EXTENSION = ".journal";
+    // First bytes of every journal
+    static final byte[] MAGIC = {'C', 'R', 'W', 'J'};
+    // Current format version
+    static final int VERSION = 1;
+    // Bytes before the snapshot
+    private static final int HEADER_SIZE = MAGIC.length + 1 + 8;
+    // Record tags
+    private static final int STRING = 1;
+    private static final int ROOM = 2;
+
+    // File the journal is kept in
+    private final String filename;
+    // Start room
+    private final Room root;
+    // Explorer found when the journal was opened (null if none)
+    private Explorer player;
+    // Id of every room the journal knows about (and listens to)
+    private final IdentityHashMap<Room, Integer> ids;
+    // Rooms changed since they were last saved
+    private final Set<Room> dirty;
+    // Listener given to each room
+    private final Consumer<Room> listener;
+    // Index of each string in the log's string table
+    private final Map<String, Integer> stringIds;
+    // Byte lengths of the snapshot and of the batches after it
+    private long snapshotSize;
+    private long logSize;
+    // Set once the file holds a snapshot of the map
+    private boolean written;
+    // Set by close, after which nothing more is saved
+    private boolean closed;
+
+    /**
+     * Constructor
+     *
+     * @param filename file the journal is kept in
+     * @param root     start room
+     */
+    private MapJournal(String filename, Room root) {
+        this.filename = filename;
+        this.root = root;
+        ids = new IdentityHashMap<>();
+        dirty = ConcurrentHashMap.newKeySet();
+        listener = dirty::add;
+        stringIds = new HashMap<>();
+    }
+
+    /**
+     * Start a new journal holding a snapshot of all rooms reachable from
+     * root (replacing any existing file)
+     *
+     * @param root     Start room
+     * @param filename Filename to write to
+     * @return the journal or null if it could not be written
+     */
+    public static MapJournal create(Room root, String filename) {
+        MapJournal journal = prepare(root, filename);
+        if (!journal.compact()) {
+            journal.close();
+            return null;
+        }
+        return journal;
+    }
+
+    /**
+     * Make a journal of all rooms reachable from root without writing
+     * anything: its first save writes the snapshot (replacing any
+     * existing file), as create does. Quick, so a journal can be made on
+     * one thread and saved on another.
+     *
+     * @param root     Start room
+     * @param filename Filename to write to
+     * @return the journal
+     */
+    public static MapJournal prepare(Room root, String filename) {
+        return new MapJournal(filename, root);
+    }
+
+    /**
+     * Load a journal: its snapshot with the rooms saved since replayed
+     * over it. Later saves are added to the same file.
+     *
+     * @param filename Filename to read from (at most 2GB)
+     * @return the journal or null if it could not be read
+     */
+    public static MapJournal open(String filename) {
+        try {
+            ByteBuffer in = ByteBuffer.wrap(
+                    Files.readAllBytes(Paths.get(filename)));
+            MapJournal journal = read(filename, in);
+            // Drop any batch which was not completely written
+            long end = HEADER_SIZE + journal.snapshotSize + journal.logSize;
+            if (end < in.limit()) {
+                RandomAccessFile file = new RandomAccessFile(filename, "rw");
+                try {
+                    file.setLength(end);
+                } finally {
+                    file.close();
+                }
+            }
+            for (Room room : journal.ids.keySet()) {
+                room.setChangeListener(journal.listener);
+            }
+            return journal;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Decode a journal
+     *
+     * @param filename file the journal is kept in
+     * @param in       Buffer holding the whole file
+     * @return the journal, not yet listening to its rooms
+     * @throws Exception if in is not a valid journal
+     */
+    private static MapJournal read(String filename, ByteBuffer in)
+            throws Exception {
+        for (byte b : MAGIC) {
+            if (in.get() != b) {
+                throw new IllegalArgumentException("Not a map journal");
+            }
+        }
+        if (in.get() != VERSION) {
+            throw new IllegalArgumentException("Unsupported journal version");
+        }
+        int snapshotSize = Math.toIntExact(in.getLong());
+        in.limit(HEADER_SIZE + snapshotSize);
+        ByteBuffer snapshot = in.slice();
+        in.limit(in.capacity());
+
+        BinaryMapFormat.readHeader(snapshot);
+        String[] snapshotStrings = BinaryMapFormat.readStrings(snapshot);
+        // Position of each room's description in the snapshot
+        int[] offsets = new int[Varint.read(snapshot)];
+        for (int i = 0; i < offsets.length; i++) {
+            int length = Varint.read(snapshot);
+            offsets[i] = snapshot.position();
+            snapshot.position(offsets[i] + length);
+        }
+
+        // Position of each room's last record in the log (0 if none)
+        List<String> logStrings = new ArrayList<>();
+        int[] latest = new int[offsets.length];
+        int roomCount = offsets.length;
+        int end = HEADER_SIZE + snapshotSize;
+        in.position(end);
+        CRC32 crc = new CRC32();
+        try {
+            while (in.hasRemaining()) {
+                int length = Varint.read(in);
+                int start = in.position();
+                if (length < 0 || length > in.remaining() - 4) {
+                    break;
+                }
+                crc.reset();
+                crc.update(in.array(), in.arrayOffset() + start, length);
+                if ((int) crc.getValue() != in.getInt(start + length)) {
+                    break;
+                }
+                while (in.position() < start + length) {
+                    int tag = Varint.read(in);
+                    if (tag == STRING) {
+                        logStrings.add(BinaryMapFormat.readString(in));
+                    } else if (tag == ROOM) {
+                        int id = Varint.read(in);
+                        int size = Varint.read(in);
+                        if (id >= latest.length) {
+                            latest = Arrays.copyOf(latest,
+                                    Math.max(id + 1, latest.length * 2));
+                        }
+                        latest[id] = in.position();
+                        roomCount = Math.max(roomCount, id + 1);
+                        in.position(in.position() + size);
+                    } else {
+                        throw new IllegalStateException("Unknown record");
+                    }
+                }
+                in.position(start + length + 4);
+                end = in.position();
+            }
+        } catch (RuntimeException e) {
+            // The batch being read was not completely written
+        }
+
+        // First pass creates the rooms so that exits can refer forwards
+        IntFunction<String> logLookup = logStrings::get;
+        Room[] rooms = new Room[roomCount];
+        for (int i = 0; i < roomCount; i++) {
+            if (i < latest.length && latest[i] != 0) {
+                in.position(latest[i]);
+                rooms[i] = new Room(logStrings.get(Varint.read(in)));
+            } else if (i < offsets.length) {
+                snapshot.position(offsets[i]);
+                rooms[i] = new Room(snapshotStrings[Varint.read(snapshot)]);
+            } else {
+                throw new IllegalStateException("No record for room " + i);
+            }
+        }
+
+        Object[] result = new Object[2];
+        for (int i = 0; i < roomCount; i++) {
+            if (i < latest.length && latest[i] != 0) {
+                in.position(latest[i]);
+                Varint.read(in);
+                BinaryMapFormat.readRoom(in, rooms[i], rooms, logLookup,
+                        result);
+            } else {
+                snapshot.position(offsets[i]);
+                Varint.read(snapshot);
+                BinaryMapFormat.readRoom(snapshot, rooms[i], rooms,
+                        id -> snapshotStrings[id], result);
+            }
+        }
+
+        MapJournal journal = new MapJournal(filename, rooms[0]);
+        journal.player = (Explorer) result[0];
+        for (int i = 0; i < roomCount; i++) {
+            journal.ids.put(rooms[i], i);
+        }
+        for (String s : logStrings) {
+            journal.stringIds.put(s, journal.stringIds.size());
+        }
+        journal.snapshotSize = snapshotSize;
+        journal.logSize = end - HEADER_SIZE - snapshotSize;
+        journal.written = true;
+        return journal;
+    }
+
+    /**
+     * Get the file the journal is kept in
+     *
+     * @return the filename
+     */
+    public String getFilename() {
+        return filename;
+    }
+
+    /**
+     * Get the start room
+     *
+     * @return the start room
+     */
+    public Room getStart() {
+        return root;
+    }
+
+    /**
+     * Get the explorer found when the journal was opened. (Like loadMap,
+     * the explorer is not left in any room.)
+     *
+     * @return the explorer, or null if there was none or the journal was
+     * made with create
+     */
+    public Explorer getPlayer() {
+        return player;
+    }
+
+    /**
+     * Number of rooms changed since the last save
+     *
+     * @return room count
+     */
+    public int countChanged() {
+        return dirty.size();
+    }
+
+    /**
+     * Add the rooms changed since the last save to the file. Rewrites
+     * the file as a new snapshot once the log is bigger than the last one
+     * (or if no snapshot has been written yet, see prepare).
+     *
+     * @return true if successful (false once closed)
+     */
+    public synchronized boolean save() {
+        if (closed) {
+            return false;
+        } else if (!written) {
+            return compact();
+        } else if (dirty.isEmpty()) {
+            return true;
+        }
+        // Taken out before being written, so changes made while saving
+        // are saved next time
+        ArrayDeque<Room> queue = new ArrayDeque<>();
+        for (Room room : dirty) {
+            dirty.remove(room);
+            queue.add(room);
+        }
+        List<Room> saved = new ArrayList<>();
+        List<String> newStrings = new ArrayList<>();
+        List<Room> found = new ArrayList<>();
+        ToIntFunction<String> intern = s -> {
+            Integer id = stringIds.get(s);
+            if (id == null) {
+                id = stringIds.size();
+                stringIds.put(s, id);
+                newStrings.add(s);
+            }
+            return id;
+        };
+        ToIntFunction<Room> roomIds = room -> {
+            Integer id = ids.get(room);
+            if (id == null) {
+                id = ids.size();
+                ids.put(room, id);
+                found.add(room);
+            }
+            return id;
+        };
+
+        try {
+            ByteArrayOutputStream rooms = new ByteArrayOutputStream();
+            DataOutputStream roomOut = new DataOutputStream(rooms);
+            ByteArrayOutputStream record = new ByteArrayOutputStream();
+            DataOutputStream recordOut = new DataOutputStream(record);
+            while (!queue.isEmpty()) {
+                Room room = queue.poll();
+                saved.add(room);
+                record.reset();
+                // Locked so the exits and contents are from the same moment
+                room.withLock(() -> {
+                    try {
+                        return BinaryMapFormat.writeRoom(recordOut, room,
+                                roomIds, intern);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                Varint.write(roomOut, ROOM);
+                Varint.write(roomOut, ids.get(room));
+                Varint.write(roomOut, record.size());
+                record.writeTo(roomOut);
+                // Rooms reached for the first time are saved whole
+                for (Room next : found) {
+                    next.setChangeListener(listener);
+                    queue.add(next);
+                }
+                found.clear();
+            }
+
+            ByteArrayOutputStream batch = new ByteArrayOutputStream();
+            DataOutputStream batchOut = new DataOutputStream(batch);
+            for (String s : newStrings) {
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                Varint.write(batchOut, STRING);
+                Varint.write(batchOut, bytes.length);
+                batchOut.write(bytes);
+            }
+            rooms.writeTo(batchOut);
+            CRC32 crc = new CRC32();
+            crc.update(batch.toByteArray());
+            ByteArrayOutputStream framed = new ByteArrayOutputStream();
+            DataOutputStream framedOut = new DataOutputStream(framed);
+            Varint.write(framedOut, batch.size());
+            batch.writeTo(framedOut);
+            framedOut.writeInt((int) crc.getValue());
+
+            RandomAccessFile file = new RandomAccessFile(filename, "rw");
+            try {
+                long position = HEADER_SIZE + snapshotSize + logSize;
+                file.seek(position);
+                file.write(framed.toByteArray());
+                file.setLength(position + framed.size());
+            } finally {
+                file.close();
+            }
+            logSize += framed.size();
+        } catch (Exception e) {
+            for (String s : newStrings) {
+                stringIds.remove(s);
+            }
+            dirty.addAll(saved);
+            dirty.addAll(queue);
+            return false;
+        }
+
+        if (logSize > snapshotSize) {
+            // The log is already saved, so this failing does not matter
+            compact();
+        }
+        return true;
+    }
+
+    /**
+     * Rewrite the file as a snapshot of all rooms reachable from the
+     * start room, with an empty log
+     *
+     * @return true if successful (false once closed)
+     */
+    public synchronized boolean compact() {
+        if (closed) {
+            return false;
+        }
+        RoomIndex index = new RoomIndex(root);
+        index.walk();
+        for (int id = 0; id < index.size(); id++) {
+            Room room = index.getRoom(id);
+            if (!ids.containsKey(room)) {
+                room.setChangeListener(listener);
+            }
+        }
+        // Rooms which can no longer be reached are forgotten
+        for (Room room : ids.keySet()) {
+            if (index.getId(room) < 0) {
+                room.removeChangeListener(listener);
+            }
+        }
+        // Changes made from here on are saved next time
+        dirty.clear();
+
+        Path path = Paths.get(filename);
+        Path temporary = Paths.get(filename + ".tmp");
+        long size;
+        try {
+            FileOutputStream file = new FileOutputStream(temporary.toFile());
+            try {
+                OutputStream out = new BufferedOutputStream(file, 1 << 16);
+                out.write(MAGIC);
+                out.write(VERSION);
+                out.write(new byte[8]);
+                BinaryMapFormat.write(index, out);
+                out.flush();
+                size = file.getChannel().position() - HEADER_SIZE;
+                ByteBuffer length = ByteBuffer.allocate(8).putLong(0, size);
+                file.getChannel().write(length, HEADER_SIZE - 8);
+            } finally {
+                file.close();
+            }
+            try {
+                Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                Files.move(temporary, path,
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (Exception e) {
+            // The old file (if any) still holds what was last saved
+            for (int id = 0; id < index.size(); id++) {
+                Room room = index.getRoom(id);
+                if (ids.containsKey(room)) {
+                    dirty.add(room);
+                } else {
+                    room.removeChangeListener(listener);
+                }
+            }
+            for (Room room : ids.keySet()) {
+                if (index.getId(room) < 0) {
+                    room.setChangeListener(listener);
+                }
+            }
+            return false;
+        }
+
+        ids.clear();
+        for (int id = 0; id < index.size(); id++) {
+            ids.put(index.getRoom(id), id);
+        }
+        stringIds.clear();
+        snapshotSize = size;
+        logSize = 0;
+        written = true;
+        return true;
+    }
+
+    /**
+     * Stop listening for changes to the rooms (leaving any rooms another
+     * journal has started listening to since). Changes made since the
+     * last save are not saved, and later saves do nothing.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        for (Room room : ids.keySet()) {
+            room.removeChangeListener(listener);
+        }
+        ids.clear();
+        dirty.clear();
+    }
+}
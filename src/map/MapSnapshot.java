@@ -0,0 +1,275 @@
+package map;
+
+import things.Thing;
+import utils.Progress;
+
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * A map as it was at the moment its save began, for saving on another
+ * thread while the game goes on.
+ * <p>
+ * Rooms are copied while the snapshot is saved, so making one is quick.
+ * While save runs, the snapshot hooks into rooms about to change (see
+ * Room.addBeforeChangeHook) and first copies them as they still are,
+ * whoever changes them. Until the rooms of the map have been found, any
+ * room about to change is copied; after that only this map's rooms are,
+ * and the copies of other rooms are dropped.
+ * <p>
+ * The hook is only added by save, which removes it before returning, so
+ * a snapshot which is never saved costs nothing.
+ */
+public class MapSnapshot {
+    /**
+     * A room as it was when the snapshot was made
+     */
+    private static final class State {
+        // Description of the room
+        final String description;
+        // Names of the exits and the rooms they go to
+        final Map<String, Room> exits;
+        // Encoded contents (see Thing.repr)
+        final String[] contents;
+
+        /**
+         * Constructor. Call while holding the room's lock.
+         *
+         * @param room room to copy
+         */
+        State(Room room) {
+            description = room.getDescription();
+            exits = new LinkedHashMap<>(room.getExits());
+            List<Thing> things = room.getContents();
+            contents = new String[things.size()];
+            for (int i = 0; i < contents.length; i++) {
+                contents[i] = things.get(i).repr();
+            }
+        }
+    }
+
+    // Rooms copied or written between progress reports
+    private static final int PROGRESS_STEP = 1024;
+
+    // Start room
+    private final Room root;
+    // Rooms copied so far
+    private final IdentityHashMap<Room, State> states;
+    // Id of each room of the map (null until they have all been found).
+    // Not changed once set
+    private volatile Map<Room, Integer> members;
+    // Set once every room has been copied. Only changed while holding
+    // this snapshot's lock
+    private volatile boolean complete;
+    // Copies rooms before they change, while save runs
+    private final Consumer<Room> hook;
+
+    /**
+     * Constructor. The snapshot is of the map as it is when save begins.
+     *
+     * @param root Start room
+     */
+    public MapSnapshot(Room root) {
+        this.root = root;
+        states = new IdentityHashMap<>();
+        hook = this::beforeChange;
+    }
+
+    /**
+     * Check whether every room has been copied (so changes to rooms are
+     * no longer copied)
+     *
+     * @return true once the snapshot no longer depends on the map
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Called (holding the room's lock) before a room changes, so that
+     * the snapshot keeps the room as it was
+     *
+     * @param room room about to change
+     */
+    private void beforeChange(Room room) {
+        Map<Room, Integer> rooms = members;
+        if (!complete && (rooms == null || rooms.containsKey(room))) {
+            copy(room);
+        }
+    }
+
+    /**
+     * Copy a room, unless it was copied already
+     *
+     * @param room the room
+     * @return the room as it was when the snapshot was made, or null if
+     * the snapshot is already complete or the room is not in the map
+     */
+    private State copy(Room room) {
+        return room.withLock(() -> {
+            synchronized (this) {
+                if (complete
+                        || members != null && !members.containsKey(room)) {
+                    return null;
+                }
+                State state = states.get(room);
+                if (state == null) {
+                    state = new State(room);
+                    states.put(room, state);
+                }
+                return state;
+            }
+        });
+    }
+
+    /**
+     * Rooms the exits of a room went to when save began (call while the
+     * hook is added)
+     *
+     * @param room the room
+     * @return the rooms, in exit order
+     */
+    private Collection<Room> exitTargets(Room room) {
+        // Read before looking for a copy: a room changed since save began
+        // was copied before it changed, so if any exit read is new, the
+        // copy is found
+        List<Room> targets = new ArrayList<>(4);
+        for (int direction = 0; direction < 4; direction++) {
+            Room target = room.getExit(direction);
+            if (target != null) {
+                targets.add(target);
+            }
+        }
+        targets.addAll(room.getOtherExits().values());
+        synchronized (this) {
+            State state = states.get(room);
+            return state == null ? targets : state.exits.values();
+        }
+    }
+
+    /**
+     * Write the snapshot to a new file in the same form as
+     * MapIO.saveMap (so compressed if filename ends with
+     * MapIO.COMPRESSED_EXTENSION). The file is only replaced once it is
+     * complete.
+     *
+     * @param filename Filename to write to
+     * @param progress told as rooms are copied, then as they are written
+     *                 (work in all is twice the number of rooms)
+     * @return true if successful, false if unsuccessful or cancelled
+     */
+    public boolean save(String filename, Progress progress) {
+        // Rooms in walk order (as RoomIndex would number them)
+        List<Room> order = new ArrayList<>();
+        IdentityHashMap<Room, Integer> ids = new IdentityHashMap<>();
+        List<State> rooms = new ArrayList<>();
+        order.add(root);
+        ids.put(root, 0);
+        Room.addBeforeChangeHook(hook);
+        try {
+            // Find the rooms of the map. Until they are known, every room
+            // about to change is copied
+            for (int id = 0; id < order.size(); id++) {
+                if (id % PROGRESS_STEP == 0
+                        && !progress.update(0, 2L * order.size())) {
+                    return false;
+                }
+                for (Room target : exitTargets(order.get(id))) {
+                    if (!ids.containsKey(target)) {
+                        ids.put(target, order.size());
+                        order.add(target);
+                    }
+                }
+            }
+            synchronized (this) {
+                members = ids;
+                states.keySet().retainAll(ids.keySet());
+            }
+
+            for (int id = 0; id < order.size(); id++) {
+                if (id % PROGRESS_STEP == 0
+                        && !progress.update(id, 2L * order.size())) {
+                    return false;
+                }
+                rooms.add(copy(order.get(id)));
+            }
+        } finally {
+            Room.removeBeforeChangeHook(hook);
+            synchronized (this) {
+                complete = true;
+                states.clear();
+            }
+        }
+
+        Path path = Paths.get(filename);
+        Path temporary = Paths.get(filename + ".tmp");
+        Writer writer = null;
+        boolean written = false;
+        try {
+            writer = MapIO.textWriter(temporary.toString(),
+                    MapIO.compressionFor(filename));
+            long total = 2L * rooms.size();
+            boolean finished = MapIO.writeMapText(writer,
+                    new MapIO.TextRooms() {
+                        @Override
+                        public int size() {
+                            return rooms.size();
+                        }
+
+                        @Override
+                        public String getDescription(int id) {
+                            return rooms.get(id).description;
+                        }
+
+                        @Override
+                        public Map<String, Room> getExits(int id) {
+                            return rooms.get(id).exits;
+                        }
+
+                        @Override
+                        public int getId(Room room) {
+                            return ids.get(room);
+                        }
+
+                        @Override
+                        public String[] getContents(int id) {
+                            return rooms.get(id).contents;
+                        }
+                    }, progress, rooms.size(), total);
+            if (!finished) {
+                return false;
+            }
+            writer.close();
+            writer = null;
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+            written = true;
+            progress.update(total, total);
+            return true;
+        } catch (Exception e) {
+            return false;
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (Exception ignored) {
+                }
+            }
+            if (!written) {
+                try {
+                    Files.deleteIfExists(temporary);
+                } catch (Exception ignored) {
+                }
+            }
+        }
+    }
+}
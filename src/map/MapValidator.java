@@ -0,0 +1,549 @@
+package map;
+
+import things.Explorer;
+import things.Thing;
+import things.ThingTypes;
+import utils.LongIntMap;
+import utils.Pair;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Check a map file written by MapIO.saveMap (plain or compressed) before
+ * loading it, reporting every problem found with its line number rather
+ * than just failing.
+ * <p>
+ * As well as malformed lines, the checks cover what BoundsMapper and the
+ * game assume about a map: exits are only North, South, East or West,
+ * each exit has a matching exit back (as made by Room.makeExitPair),
+ * there is exactly one explorer, and no two rooms reachable from the
+ * start are laid out at the same position.
+ * <p>
+ * The file is read once, from start to end. Things are decoded in batches
+ * on a ForkJoin pool while reading goes on; once the file is read, the
+ * exits are checked in parallel over ranges of rooms while the rooms are
+ * laid out.
+ */
+public final class MapValidator {
+    // Cardinal exit labels, and the exit opposite each
+    private static final String[] DIRECTIONS =
+            {"North", "South", "East", "West"};
+    private static final int[] OPPOSITE = {1, 0, 3, 2};
+    // Offset from a room to the room through each cardinal exit
+    private static final int[] DX = {0, 0, 1, -1};
+    private static final int[] DY = {-1, 1, 0, 0};
+    // Things decoded by each task
+    private static final int BATCH_SIZE = 8192;
+    // Rooms whose exits are checked by each task
+    private static final int RANGE_SIZE = 1 << 14;
+
+    /**
+     * A problem found in a map file
+     */
+    public static final class Violation implements Comparable<Violation> {
+        // Line the problem is on (0 if it is about the whole file)
+        public final long line;
+        // What is wrong
+        public final String message;
+
+        /**
+         * Constructor
+         *
+         * @param line    line the problem is on (0 for the whole file)
+         * @param message what is wrong
+         */
+        Violation(long line, String message) {
+            this.line = line;
+            this.message = message;
+        }
+
+        /**
+         * Order by line number
+         *
+         * @param other violation to compare with
+         * @return negative, zero or positive as this is on an earlier,
+         * the same or a later line
+         */
+        @Override
+        public int compareTo(Violation other) {
+            return Long.compare(line, other.line);
+        }
+
+        /**
+         * The violation as shown to a user
+         *
+         * @return e.g. "line 12: Not a valid thing: T;1"
+         */
+        @Override
+        public String toString() {
+            return (line == 0 ? "file" : "line " + line) + ": " + message;
+        }
+    }
+
+    /**
+     * What one batch of things held
+     */
+    private static final class Batch {
+        // Problems found
+        final List<Violation> violations = new ArrayList<>();
+        // Lines holding an explorer
+        final List<Long> explorers = new ArrayList<>();
+    }
+
+    /**
+     * Everything read from the file which the checks after reading need
+     */
+    private static final class Exits {
+        // Number of rooms
+        final int rooms;
+        // Line number of each room's exit count
+        final long[] countLines;
+        // Exits of room r are start[r] to start[r + 1] - 1
+        final int[] start;
+        // Room each exit goes to (-1 if the line was malformed)
+        int[] targets;
+        // Index into DIRECTIONS of each exit (-1 if not cardinal)
+        byte[] directions;
+        // Number of exits read so far
+        int size;
+
+        /**
+         * Constructor
+         *
+         * @param rooms number of rooms
+         */
+        Exits(int rooms) {
+            this.rooms = rooms;
+            countLines = new long[rooms];
+            start = new int[rooms + 1];
+            targets = new int[Math.max(16, rooms)];
+            directions = new byte[targets.length];
+        }
+
+        /**
+         * Add an exit to the last room started
+         *
+         * @param target    room the exit goes to (-1 if unknown)
+         * @param direction index into DIRECTIONS (-1 if not cardinal)
+         */
+        void add(int target, int direction) {
+            if (size == targets.length) {
+                targets = Arrays.copyOf(targets, size * 2);
+                directions = Arrays.copyOf(directions, size * 2);
+            }
+            targets[size] = target;
+            directions[size] = (byte) direction;
+            size++;
+        }
+
+        /**
+         * Line number of an exit
+         *
+         * @param room room the exit belongs to
+         * @param exit index of the exit
+         * @return its line number
+         */
+        long line(int room, int exit) {
+            return countLines[room] + 1 + exit - start[room];
+        }
+    }
+
+    /**
+     * Not instantiable
+     */
+    private MapValidator() {
+    }
+
+    /**
+     * Check a map file using every core of the common ForkJoin pool
+     *
+     * @param filename file to check
+     * @return every problem found, by line number (empty if none)
+     */
+    public static List<Violation> validate(String filename) {
+        return validate(filename, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Check a map file
+     *
+     * @param filename file to check
+     * @param pool     pool to run the checks on
+     * @return every problem found, by line number (empty if none)
+     */
+    public static List<Violation> validate(String filename,
+                                           ForkJoinPool pool) {
+        List<Violation> violations = new ArrayList<>();
+        BufferedReader in = null;
+        try {
+            in = MapIO.textReader(filename);
+            read(in, pool, violations);
+        } catch (IOException e) {
+            violations.add(new Violation(0, "Unable to read file: "
+                    + e.getMessage()));
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (Exception ignored) {
+                }
+            }
+        }
+        Collections.sort(violations);
+        return violations;
+    }
+
+    /**
+     * Read and check the whole file
+     *
+     * @param in         the file
+     * @param pool       pool to run the checks on
+     * @param violations list to add problems to
+     * @throws IOException if in fails
+     */
+    private static void read(BufferedReader in, ForkJoinPool pool,
+                             List<Violation> violations) throws IOException {
+        String text = in.readLine();
+        int rooms = parseCount(text);
+        if (rooms <= 0) {
+            violations.add(new Violation(1, text == null ? "File is empty"
+                    : "Room count is not a positive number: " + text));
+            return;
+        }
+        long line = 1;
+        for (int room = 0; room < rooms; room++) {
+            line++;
+            if (in.readLine() == null) {
+                violations.add(new Violation(line, "File ends before the "
+                        + "description of room " + room));
+                return;
+            }
+        }
+
+        Exits exits = new Exits(rooms);
+        for (int room = 0; room < rooms; room++) {
+            line++;
+            text = in.readLine();
+            int count = parseCount(text);
+            if (count < 0) {
+                violations.add(endOrMalformed(line, text,
+                        "exit count of room " + room));
+                return;
+            }
+            exits.countLines[room] = line;
+            exits.start[room] = exits.size;
+            // Cardinal labels seen so far in this room, one bit each
+            int seen = 0;
+            List<String> otherLabels = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                line++;
+                text = in.readLine();
+                if (text == null) {
+                    violations.add(new Violation(line,
+                            "File ends in the exits of room " + room));
+                    return;
+                }
+                int space = text.indexOf(' ');
+                int target = space < 0 ? -1
+                        : parseCount(text.substring(0, space));
+                String label = space < 0 ? "" : text.substring(space + 1);
+                int direction = direction(label);
+                if (space < 0 || target < 0 || label.isEmpty()) {
+                    violations.add(new Violation(line,
+                            "Exit is not \"room label\": " + text));
+                    target = -1;
+                } else if (target >= rooms) {
+                    violations.add(new Violation(line, "Exit goes to room "
+                            + target + " but there are only " + rooms));
+                    target = -1;
+                } else if (direction < 0) {
+                    violations.add(new Violation(line, "Exit \"" + label
+                            + "\" is not North, South, East or West"));
+                }
+                boolean repeated = direction >= 0
+                        ? (seen & (1 << direction)) != 0
+                        : otherLabels.contains(label);
+                if (repeated && !label.isEmpty()) {
+                    violations.add(new Violation(line, "Room " + room
+                            + " already has an exit \"" + label + "\""));
+                    target = -1;
+                } else if (direction >= 0) {
+                    seen |= 1 << direction;
+                } else {
+                    otherLabels.add(label);
+                }
+                exits.add(target, direction);
+            }
+        }
+        exits.start[rooms] = exits.size;
+
+        // Things are checked on the pool while later lines are read
+        ArrayDeque<ForkJoinTask<Batch>> batches = new ArrayDeque<>();
+        List<Batch> done = new ArrayList<>();
+        int inFlight = pool.getParallelism() * 2;
+        List<String> lines = new ArrayList<>(BATCH_SIZE);
+        long batchStart = 0;
+        boolean complete = true;
+        for (int room = 0; room < rooms && complete; room++) {
+            line++;
+            text = in.readLine();
+            int count = parseCount(text);
+            if (count < 0) {
+                violations.add(endOrMalformed(line, text,
+                        "thing count of room " + room));
+                complete = false;
+            }
+            for (int i = 0; i < count && complete; i++) {
+                line++;
+                text = in.readLine();
+                if (text == null) {
+                    violations.add(new Violation(line,
+                            "File ends in the things of room " + room));
+                    complete = false;
+                } else {
+                    if (lines.isEmpty()) {
+                        batchStart = line;
+                    }
+                    lines.add(text);
+                }
+                if (lines.size() == BATCH_SIZE) {
+                    batches.add(submit(pool, lines, batchStart));
+                    lines = new ArrayList<>(BATCH_SIZE);
+                    if (batches.size() > inFlight) {
+                        done.add(batches.poll().join());
+                    }
+                }
+            }
+        }
+        if (!lines.isEmpty()) {
+            batches.add(submit(pool, lines, batchStart));
+        }
+
+        // Exits are checked while the things finish
+        ForkJoinTask<List<Violation>> reciprocal =
+                pool.submit(() -> checkReciprocal(exits));
+        List<Violation> layout = checkLayout(exits);
+        for (ForkJoinTask<Batch> batch : batches) {
+            done.add(batch.join());
+        }
+        violations.addAll(reciprocal.join());
+        violations.addAll(layout);
+
+        List<Long> explorers = new ArrayList<>();
+        for (Batch batch : done) {
+            violations.addAll(batch.violations);
+            explorers.addAll(batch.explorers);
+        }
+        if (complete && explorers.isEmpty()) {
+            violations.add(new Violation(0, "There is no explorer"));
+        }
+        Collections.sort(explorers);
+        for (int i = 1; i < explorers.size(); i++) {
+            violations.add(new Violation(explorers.get(i),
+                    "Another explorer (the first is on line "
+                            + explorers.get(0) + ")"));
+        }
+    }
+
+    /**
+     * Parse a count or room id
+     *
+     * @param text line to parse (may be null)
+     * @return the number, or -1 if text is not a non-negative number
+     */
+    private static int parseCount(String text) {
+        if (text == null) {
+            return -1;
+        }
+        try {
+            int value = Integer.parseInt(text);
+            return value < 0 ? -1 : value;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Index of a cardinal exit label
+     *
+     * @param label exit label
+     * @return index into DIRECTIONS, or -1 if label is not cardinal
+     */
+    private static int direction(String label) {
+        for (int i = 0; i < DIRECTIONS.length; i++) {
+            if (DIRECTIONS[i].equals(label)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Report a count line which is missing or malformed
+     *
+     * @param line line number
+     * @param text the line (null at the end of the file)
+     * @param what what the line should hold
+     * @return the violation
+     */
+    private static Violation endOrMalformed(long line, String text,
+                                            String what) {
+        if (text == null) {
+            return new Violation(line, "File ends before the " + what);
+        }
+        return new Violation(line, "Expected the " + what + ": " + text);
+    }
+
+    /**
+     * Decode a batch of things on the pool
+     *
+     * @param pool  pool to run on
+     * @param lines encoded things, one per line
+     * @param first line number of the first
+     * @return the running task
+     */
+    private static ForkJoinTask<Batch> submit(ForkJoinPool pool,
+                                              List<String> lines, long first) {
+        return pool.submit(() -> {
+            Batch batch = new Batch();
+            for (int i = 0; i < lines.size(); i++) {
+                Thing thing = ThingTypes.decode(lines.get(i));
+                if (thing == null) {
+                    batch.violations.add(new Violation(first + i,
+                            "Not a valid thing: " + lines.get(i)));
+                } else if (thing instanceof Explorer) {
+                    batch.explorers.add(first + i);
+                }
+            }
+            return batch;
+        });
+    }
+
+    /**
+     * Check that each cardinal exit has a matching exit back, in
+     * parallel over ranges of rooms
+     *
+     * @param exits the exits
+     * @return problems found
+     */
+    private static List<Violation> checkReciprocal(Exits exits) {
+        int ranges = (exits.rooms + RANGE_SIZE - 1) / RANGE_SIZE;
+        return IntStream.range(0, ranges).parallel()
+                .mapToObj(range -> {
+                    List<Violation> found = new ArrayList<>();
+                    int end = Math.min(exits.rooms, (range + 1) * RANGE_SIZE);
+                    for (int room = range * RANGE_SIZE; room < end; room++) {
+                        checkReciprocal(exits, room, found);
+                    }
+                    return found;
+                })
+                .flatMap(List::stream)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Check that each cardinal exit of a room has a matching exit back
+     *
+     * @param exits the exits
+     * @param room  room to check
+     * @param found list to add problems to
+     */
+    private static void checkReciprocal(Exits exits, int room,
+                                        List<Violation> found) {
+        for (int i = exits.start[room]; i < exits.start[room + 1]; i++) {
+            int target = exits.targets[i];
+            int direction = exits.directions[i];
+            if (target < 0 || direction < 0) {
+                continue;
+            }
+            int back = OPPOSITE[direction];
+            boolean matched = false;
+            for (int j = exits.start[target]; j < exits.start[target + 1];
+                 j++) {
+                if (exits.directions[j] == back) {
+                    matched = exits.targets[j] == room;
+                    break;
+                }
+            }
+            if (!matched) {
+                found.add(new Violation(exits.line(room, i), "Room " + target
+                        + " has no " + DIRECTIONS[back] + " exit back to room "
+                        + room));
+            }
+        }
+    }
+
+    /**
+     * Lay out the rooms reachable from room 0 (as BoundsMapper would) and
+     * check no two are at the same position
+     *
+     * @param exits the exits
+     * @return problems found
+     */
+    private static List<Violation> checkLayout(Exits exits) {
+        List<Violation> found = new ArrayList<>();
+        long[] coords = new long[exits.rooms];
+        boolean[] placed = new boolean[exits.rooms];
+        LongIntMap roomsAt = new LongIntMap();
+        int[] queue = new int[exits.rooms];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = 0;
+        placed[0] = true;
+        roomsAt.put(Pair.pack(0, 0), 0);
+        while (head < tail) {
+            int room = queue[head++];
+            int x = Pair.unpackX(coords[room]);
+            int y = Pair.unpackY(coords[room]);
+            for (int i = exits.start[room]; i < exits.start[room + 1]; i++) {
+                int target = exits.targets[i];
+                int direction = exits.directions[i];
+                if (target < 0 || direction < 0 || placed[target]) {
+                    continue;
+                }
+                long coord = Pair.pack(x + DX[direction], y + DY[direction]);
+                coords[target] = coord;
+                placed[target] = true;
+                queue[tail++] = target;
+                int other = roomsAt.get(coord, -1);
+                if (other >= 0) {
+                    // Description lines start at line 2
+                    found.add(new Violation(target + 2L, "Room " + target
+                            + " is at " + Pair.unpack(coord)
+                            + ", where room " + other + " already is"));
+                } else {
+                    roomsAt.put(coord, target);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Check map files named on the command line, printing every problem.
+     * Exits with status 1 if any file has problems.
+     *
+     * @param args names of the files to check
+     */
+    public static void main(String[] args) {
+        boolean valid = true;
+        for (String filename : args) {
+            List<Violation> violations = validate(filename);
+            for (Violation violation : violations) {
+                System.out.println(filename + " " + violation);
+            }
+            valid &= violations.isEmpty();
+        }
+        System.exit(valid ? 0 : 1);
+    }
+}
@@ -1,27 +1,54 @@
 package map;
 
-import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
 
 /**
  * Iterator over all reachable Rooms
  */
 public class MapWalker {
+    /**
+     * Order in which reachable rooms are visited.
+     */
+    public enum Order {
+        // Visit rooms nearest the start first (queue frontier)
+        BREADTH_FIRST,
+        // Follow each path as deep as possible first (stack frontier)
+        DEPTH_FIRST
+    }
+
     // Rooms to visit
-    private ArrayList<Room> roomsToVisit;
-    // Rooms that have been visited
-    private ArrayList<Room> visitedRooms;
+    private ArrayDeque<Room> roomsToVisit;
+    // Rooms that have been visited (compared by identity)
+    private Set<Room> visitedRooms;
     // The starting room to explore
     private Room start;
+    // The order rooms are visited in
+    private Order order;
 
     /**
      * Constructor
+     * Rooms are visited breadth first.
      *
      * @param start map.Room to begin exploring from
      */
     public MapWalker(Room start) {
+        this(start, Order.BREADTH_FIRST);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param start map.Room to begin exploring from
+     * @param order order to visit rooms in
+     */
+    public MapWalker(Room start, Order order) {
         this.start = start;
-        roomsToVisit = new ArrayList<>();
-        visitedRooms = new ArrayList<>();
+        this.order = order;
+        roomsToVisit = new ArrayDeque<>();
+        visitedRooms = Collections.newSetFromMap(new IdentityHashMap<>());
     }
 
     /**
@@ -34,17 +61,28 @@ public class MapWalker {
 
     /**
      * Visit all reachable rooms and call visit()
+     * Each room is visited once and each exit is followed at most once,
+     * so a walk takes time linear in rooms plus exits.
      */
     public void walk() {
         reset();
-        roomsToVisit.add(start);
-        while (roomsToVisit.size() != 0) {
-            Room roomVisiting = roomsToVisit.remove(0);
+        roomsToVisit.addLast(start);
+        while (!roomsToVisit.isEmpty()) {
+            Room roomVisiting = (order == Order.DEPTH_FIRST)
+                    ? roomsToVisit.pollLast() : roomsToVisit.pollFirst();
             if (!hasVisited(roomVisiting)) {
-                // add all unvisited neighbours of room to roomsToVisit
-                for (Room neighbour : roomVisiting.getExits().values()) {
+                // add all unvisited neighbours of room to roomsToVisit,
+                // reading the cardinal slots directly
+                for (int d = 0; d < 4; d++) {
+                    Room neighbour = roomVisiting.getExit(d);
+                    if (neighbour != null && !hasVisited(neighbour)) {
+                        roomsToVisit.addLast(neighbour);
+                    }
+                }
+                for (Room neighbour
+                        : roomVisiting.getOtherExits().values()) {
                     if (!hasVisited(neighbour)) {
-                        roomsToVisit.add(neighbour);
+                        roomsToVisit.addLast(neighbour);
                     }
                 }
                 visit(roomVisiting);
@@ -63,6 +101,15 @@ public class MapWalker {
         return visitedRooms.contains(room);
     }
 
+    /**
+     * The order this walker visits rooms in
+     *
+     * @return visiting order
+     */
+    public Order getOrder() {
+        return order;
+    }
+
     /**
      * Process a room override to customise behaviour
      *
@@ -0,0 +1,140 @@
+package map;
+
+import things.Explorer;
+import things.Thing;
+import things.ThingTypes;
+import utils.Varint;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A binary map file which is memory mapped rather than read into the heap.
+ * Rooms are only built when first reached, and their exits and contents
+ * are only decoded when first used (see MappedRoom).
+ * Rooms may be loaded from several threads at once.
+ */
+class MappedMap {
+    // The whole map file
+    private ByteBuffer buffer;
+    // Offset of each room record (just after its length)
+    private int[] roomOffsets;
+    // Rooms built so far (null until first reached)
+    private MappedRoom[] rooms;
+    // Offset of each entry in the string table
+    private int[] stringOffsets;
+    // Strings decoded so far (null until first used)
+    private String[] strings;
+    // The explorer, once its room has been loaded
+    private volatile Explorer player;
+
+    /**
+     * Constructor
+     * Maps the file and indexes where each room and string starts.
+     *
+     * @param filename binary map file created with MapIO.saveBinaryMap
+     * @throws IOException if the file can not be read or is over 2GB
+     * @throws IllegalArgumentException if it is not a supported binary map
+     */
+    MappedMap(String filename) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(filename, "r");
+             FileChannel channel = file.getChannel()) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        }
+        ByteBuffer in = buffer.duplicate();
+        BinaryMapFormat.readHeader(in);
+        roomOffsets = new int[Varint.read(in)];
+        for (int i = 0; i < roomOffsets.length; i++) {
+            int length = Varint.read(in);
+            roomOffsets[i] = in.position();
+            in.position(roomOffsets[i] + length);
+        }
+        rooms = new MappedRoom[roomOffsets.length];
+
+        in.position(BinaryMapFormat.stringTableOffset(buffer));
+        stringOffsets = new int[Varint.read(in)];
+        for (int i = 0; i < stringOffsets.length; i++) {
+            stringOffsets[i] = in.position();
+            int length = Varint.read(in);
+            in.position(in.position() + length);
+        }
+        strings = new String[stringOffsets.length];
+
+        int playerRoom = BinaryMapFormat.readPlayerRoom(buffer);
+        if (playerRoom >= 0) {
+            // Loading the room sets aside the explorer
+            getRoom(playerRoom).getContents();
+        }
+    }
+
+    /**
+     * The explorer found in the map
+     *
+     * @return the explorer or null if there was none
+     */
+    Explorer getPlayer() {
+        return player;
+    }
+
+    /**
+     * Get a room, building it (without its exits or contents) if this is
+     * the first time it has been reached.
+     *
+     * @param id room id (the start room is 0)
+     * @return the room
+     */
+    synchronized Room getRoom(int id) {
+        if (rooms[id] == null) {
+            ByteBuffer in = buffer.duplicate();
+            in.position(roomOffsets[id]);
+            rooms[id] = new MappedRoom(getString(Varint.read(in)), this, id);
+        }
+        return rooms[id];
+    }
+
+    /**
+     * Get an entry from the string table, decoding it on first use.
+     *
+     * @param id string table index
+     * @return the string
+     */
+    private synchronized String getString(int id) {
+        if (strings[id] == null) {
+            ByteBuffer in = buffer.duplicate();
+            in.position(stringOffsets[id]);
+            strings[id] = BinaryMapFormat.readString(in);
+        }
+        return strings[id];
+    }
+
+    /**
+     * Decode the exits and contents of a room into it.
+     * Rooms the exits lead to are built but not loaded.
+     *
+     * @param room room to fill in (must not already be loaded)
+     * @param id   id of room
+     * @throws Exception if the record is malformed
+     */
+    void load(MappedRoom room, int id) throws Exception {
+        ByteBuffer in = buffer.duplicate();
+        in.position(roomOffsets[id]);
+        Varint.read(in);
+        int exitCount = Varint.read(in);
+        for (int i = 0; i < exitCount; i++) {
+            String label = getString(Varint.read(in));
+            room.addExit(label, getRoom(Varint.read(in)));
+        }
+        int itemCount = Varint.read(in);
+        for (int i = 0; i < itemCount; i++) {
+            Thing thing = ThingTypes.read(in, this::getString);
+            if (thing instanceof Explorer) {
+                player = (Explorer) thing;
+            } else {
+                room.enter(thing);
+            }
+        }
+    }
+}
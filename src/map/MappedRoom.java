@@ -0,0 +1,343 @@
+package map;
+
+import exceptions.ExitExistsException;
+import exceptions.NullRoomException;
+import things.Thing;
+import things.ThingIndex;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * A Room from a memory mapped map file.
+ * Its exits and contents are decoded the first time either is used.
+ */
+class MappedRoom extends Room {
+    // Version of the serialised form
+    private static final long serialVersionUID = 1L;
+
+    // Map file the room came from (null once loaded). Cleared only when
+    // loading has finished, so other threads never see a part loaded room
+    private transient volatile MappedMap source;
+    // Set while this room's own load is running, so that load's addExit
+    // and enter calls get through. Only used while holding the room's lock
+    private transient boolean loading;
+    // Why loading failed (null if it has not). Only used while holding
+    // the room's lock
+    private transient Exception failure;
+    // Id of the room in source
+    private int id;
+
+    /**
+     * Constructor
+     *
+     * @param desc   Description for the room
+     * @param source Map file the room came from
+     * @param id     Id of the room in source
+     */
+    MappedRoom(String desc, MappedMap source, int id) {
+        super(desc);
+        this.source = source;
+        this.id = id;
+    }
+
+    /**
+     * Decode exits and contents from the map file if not done already.
+     * Other threads wait until the room is loaded. A room which failed to
+     * load stays part loaded, and fails again every time it is used.
+     *
+     * @throws IllegalStateException if the room's record is malformed
+     */
+    private void load() {
+        if (source != null) {
+            synchronized (lock()) {
+                MappedMap map = source;
+                if (map == null || loading) {
+                    return;
+                }
+                if (failure == null) {
+                    loading = true;
+                    try {
+                        map.load(this, id);
+                    } catch (Exception e) {
+                        failure = e;
+                    } finally {
+                        loading = false;
+                    }
+                }
+                if (failure != null) {
+                    throw new IllegalStateException(
+                            "Unable to load room " + id, failure);
+                }
+                // Written last, and only once loaded: readers which find
+                // it null (without taking the lock) see everything load
+                // added
+                source = null;
+            }
+        }
+    }
+
+    /**
+     * Load the room, then add a new exit to it
+     *
+     * @param name Name of the exit
+     * @param target map.Room the exit goes to
+     * @throws ExitExistsException if the room already has an exit of that name
+     * @throws NullRoomException if target is null
+     */
+    @Override
+    public void addExit(String name, Room target)
+            throws ExitExistsException, NullRoomException {
+        load();
+        super.addExit(name, target);
+    }
+
+    /**
+     * Load the room, then return its exits
+     *
+     * @return read only map of names to Rooms
+     */
+    @Override
+    public Map<String, Room> getExits() {
+        load();
+        return super.getExits();
+    }
+
+    /**
+     * Load the room, then find where an exit goes
+     *
+     * @param name Name of the exit
+     * @return the map.Room it goes to, or null if there is no such exit
+     */
+    @Override
+    public Room getExit(String name) {
+        load();
+        return super.getExit(name);
+    }
+
+    /**
+     * Load the room, then find where a cardinal exit goes
+     *
+     * @param direction index into DIRECTIONS
+     * @return the map.Room it goes to, or null if there is no such exit
+     */
+    @Override
+    public Room getExit(int direction) {
+        load();
+        return super.getExit(direction);
+    }
+
+    /**
+     * Load the room, then return its exits with other labels
+     *
+     * @return read only map of names to Rooms
+     */
+    @Override
+    Map<String, Room> getOtherExits() {
+        load();
+        return super.getOtherExits();
+    }
+
+    /**
+     * Load the room, then return its contents
+     *
+     * @return copy of the Things in the map.Room
+     */
+    @Override
+    public List<Thing> getContents() {
+        load();
+        return super.getContents();
+    }
+
+    /**
+     * Load the room, then return its contents of a type
+     *
+     * @param type type of Things wanted (subclasses are included)
+     * @param <T>  type of Things wanted
+     * @return copy of the matching Things in the map.Room
+     */
+    @Override
+    public <T extends Thing> List<T> getContents(Class<T> type) {
+        load();
+        return super.getContents(type);
+    }
+
+    /**
+     * Load the room, then count its contents
+     *
+     * @return number of Things
+     */
+    @Override
+    public int countContents() {
+        load();
+        return super.countContents();
+    }
+
+    /**
+     * Load the room, then count its contents of a type
+     *
+     * @param type type of Things to count (subclasses are included)
+     * @return number of matching Things
+     */
+    @Override
+    public int countContents(Class<? extends Thing> type) {
+        load();
+        return super.countContents(type);
+    }
+
+    /**
+     * Load the room, then check whether a Thing is in it
+     *
+     * @param item things.Thing to look for
+     * @return true if item is in the map.Room
+     */
+    @Override
+    public boolean contains(Thing item) {
+        load();
+        return super.contains(item);
+    }
+
+    /**
+     * Load the room, then total the value of its contents
+     *
+     * @return the total
+     */
+    @Override
+    public double getValue() {
+        load();
+        return super.getValue();
+    }
+
+    /**
+     * Load the room, then total the value of the contents which can be
+     * taken now
+     *
+     * @return the total
+     */
+    @Override
+    public double getLootValue() {
+        load();
+        return super.getLootValue();
+    }
+
+    /**
+     * Load the room, then set what to tell when its value changes
+     *
+     * @param listener listener, or null for none
+     */
+    @Override
+    void setValueListener(ThingIndex.ValueListener listener) {
+        load();
+        super.setValueListener(listener);
+    }
+
+    /**
+     * Load the room, then set what to tell when it changes
+     *
+     * @param listener listener, or null for none
+     */
+    @Override
+    void setChangeListener(Consumer<Room> listener) {
+        load();
+        super.setChangeListener(listener);
+    }
+
+    /**
+     * Load the room, then find a Thing in it by short description
+     *
+     * @param shortDesc short description to look for
+     * @return the earliest Thing to enter with that description,
+     * or null if there is none
+     */
+    @Override
+    public Thing find(String shortDesc) {
+        load();
+        return super.find(shortDesc);
+    }
+
+    /**
+     * Load the room, then find a Thing in it by short description,
+     * type and a test
+     *
+     * @param shortDesc short description to look for
+     * @param type      type of Thing wanted (subclasses are included)
+     * @param test      test the Thing must pass
+     * @param <T>       type of Thing wanted
+     * @return the earliest Thing to enter which matches,
+     * or null if there is none
+     */
+    @Override
+    public <T extends Thing> T find(String shortDesc, Class<T> type,
+                                    Predicate<? super T> test) {
+        load();
+        return super.find(shortDesc, type, test);
+    }
+
+    /**
+     * Load the room, then remove an exit from it
+     *
+     * @param name Name of exit to remove
+     */
+    @Override
+    public void removeExit(String name) {
+        load();
+        super.removeExit(name);
+    }
+
+    /**
+     * Load the room, then add a things.Thing to it
+     *
+     * @param item things.Thing to add
+     */
+    @Override
+    public void enter(Thing item) {
+        load();
+        super.enter(item);
+    }
+
+    /**
+     * Load the room, then remove item from it
+     *
+     * @param item things.Thing to remove
+     * @return true if removal was successful
+     */
+    @Override
+    public boolean leave(Thing item) {
+        load();
+        return super.leave(item);
+    }
+
+    /**
+     * Tell the before change hooks this room is about to change, unless
+     * the change is the room being loaded
+     */
+    @Override
+    void beforeChange() {
+        if (!loading) {
+            super.beforeChange();
+        }
+    }
+
+    /**
+     * Move the exit version on after an exit change, unless the change is
+     * the room being loaded (loading only reads what was saved)
+     */
+    @Override
+    void exitsChanged() {
+        if (!loading) {
+            super.exitsChanged();
+        }
+    }
+
+    /**
+     * Load before being serialised so the whole room is written.
+     *
+     * @return this room
+     */
+    private Object writeReplace() {
+        load();
+        return this;
+    }
+}
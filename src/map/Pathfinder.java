@@ -0,0 +1,606 @@
+package map;
+
+import utils.Pair;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Find shortest routes (fewest exits taken) between rooms of a map.
+ * <p>
+ * The rooms reachable from a root are numbered and laid out once with a
+ * BoundsMapper, and their exits copied into a MapGraph, so that searches
+ * don't touch the rooms themselves. Recent routes are cached
+ * (least recently used first out). Adding or removing an exit of an
+ * indexed room makes the next query re-index the map and empty the cache.
+ * Exit changes anywhere else (see Room.getExitVersion) only make the next
+ * query check the indexed rooms.
+ * <p>
+ * Thread safe: queries are run one at a time.
+ */
+public class Pathfinder {
+    /**
+     * How to search for a route. Every strategy finds a shortest route,
+     * though when there are several they may find different ones.
+     */
+    public enum Strategy {
+        // Breadth first search out from the start
+        BREADTH_FIRST,
+        // Breadth first search from both ends until the searches meet
+        BIDIRECTIONAL,
+        // A* search guided by the distance between room coordinates
+        A_STAR
+    }
+
+    // Number of routes cached if not given
+    private static final int DEFAULT_CACHE_SIZE = 1024;
+    // Cached route for a pair of rooms with no route between them
+    private static final int[] NO_ROUTE = new int[0];
+
+    // Room to index the map from
+    private final Room root;
+    // Most routes kept in the cache
+    private final int cacheSize;
+    // Exit version read before the index was last built
+    private long built;
+    // Exit version the index was last checked against (-1 before the
+    // first build)
+    private long checked;
+    // Numbers and lays out the rooms
+    private BoundsMapper mapper;
+    // Exits of room id are exitTargets[exitStarts[id] .. exitStarts[id+1])
+    private int[] exitStarts;
+    private int[] exitTargets;
+    // Rooms with an exit to room id are entryRooms[entryStarts[id] ..]
+    private int[] entryStarts;
+    private int[] entryRooms;
+    // Largest coordinate distance (x plus y) between the ends of an exit
+    private int longestExit;
+    // Recent routes by packed (from, to) ids, least recently used first
+    private LinkedHashMap<Long, int[]> routes;
+
+    // Search state, reused between searches. An entry is only valid if
+    // its mark is the current search's stamp.
+    private int stamp;
+    private int[] forwardMark;
+    private int[] backwardMark;
+    // Room each room was reached from (forward) or leads to (backward)
+    private int[] forwardParent;
+    private int[] backwardParent;
+    // Exits taken from the start (forward) or to the end (backward)
+    private int[] forwardDistance;
+    private int[] backwardDistance;
+    // Queue of rooms to search next (breadth first searches)
+    private int[] queue;
+    // Heap of rooms to search next, and their priorities (A*)
+    private int[] heapRooms;
+    private long[] heapKeys;
+
+    /**
+     * Constructor
+     *
+     * @param root room to index the map from. Routes can only be found
+     *             between rooms reachable from it.
+     */
+    public Pathfinder(Room root) {
+        this(root, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param root      room to index the map from. Routes can only be
+     *                  found between rooms reachable from it.
+     * @param cacheSize most routes to cache (0 for none)
+     */
+    public Pathfinder(Room root, int cacheSize) {
+        this.root = root;
+        this.cacheSize = cacheSize;
+        checked = -1;
+        routes = new LinkedHashMap<Long, int[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, int[]> eldest) {
+                return size() > Pathfinder.this.cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Re-index the map if an exit of an indexed room has changed since it
+     * was last indexed
+     */
+    private void refresh() {
+        // Read first, so changes made during the walk cause another check
+        long current = Room.getExitVersion();
+        if (current == checked) {
+            return;
+        }
+        if (mapper == null || exitsChangedSince(built)) {
+            rebuild();
+            built = current;
+        }
+        checked = current;
+    }
+
+    /**
+     * Have the exits of any indexed room changed?
+     * A room whose exits change while the index is built may be counted
+     * as changed even though the index has the change, which only costs
+     * one more build.
+     *
+     * @param version exit version read before the index was built
+     * @return true if an indexed room's exits changed after version was
+     * read
+     */
+    private boolean exitsChangedSince(long version) {
+        for (int id = 0; id < mapper.size(); id++) {
+            if (mapper.getRoom(id).getExitStamp() > version) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Number and lay out the rooms reachable from the root, copy their
+     * exits and empty the cache
+     */
+    private void rebuild() {
+        mapper = new BoundsMapper(root);
+        mapper.walk();
+        MapGraph graph = new MapGraph(mapper);
+        int size = graph.size();
+        exitStarts = graph.exitStarts;
+        exitTargets = graph.exitTargets;
+        entryStarts = graph.entryStarts;
+        entryRooms = graph.entryRooms;
+        longestExit = 1;
+        for (int id = 0; id < size; id++) {
+            long from = mapper.getPackedCoord(id);
+            for (int i = exitStarts[id]; i < exitStarts[id + 1]; i++) {
+                longestExit = Math.max(longestExit,
+                        distance(from, mapper.getPackedCoord(exitTargets[i])));
+            }
+        }
+        forwardMark = new int[size];
+        backwardMark = new int[size];
+        forwardParent = new int[size];
+        backwardParent = new int[size];
+        forwardDistance = new int[size];
+        backwardDistance = new int[size];
+        queue = new int[size];
+        heapRooms = new int[16];
+        heapKeys = new long[16];
+        stamp = 0;
+        routes.clear();
+    }
+
+    /**
+     * Coordinate distance (x plus y) between two rooms
+     *
+     * @param from packed coordinate of one room
+     * @param to   packed coordinate of the other
+     * @return the distance
+     */
+    private static int distance(long from, long to) {
+        return Math.abs(Pair.unpackX(from) - Pair.unpackX(to))
+                + Math.abs(Pair.unpackY(from) - Pair.unpackY(to));
+    }
+
+    /**
+     * Start a new search, invalidating the state of the last one
+     */
+    private void newSearch() {
+        stamp++;
+        if (stamp == 0) {
+            // Wrapped around: old marks could match again
+            Arrays.fill(forwardMark, 0);
+            Arrays.fill(backwardMark, 0);
+            stamp = 1;
+        }
+    }
+
+    /**
+     * Find a shortest route, searching in both directions
+     *
+     * @param from start room
+     * @param to   end room
+     * @return rooms along the route, starting with from and ending with to,
+     * or null if there is no route
+     */
+    public List<Room> route(Room from, Room to) {
+        return route(from, to, Strategy.BIDIRECTIONAL);
+    }
+
+    /**
+     * Find a shortest route
+     *
+     * @param from     start room
+     * @param to       end room
+     * @param strategy how to search (if the route is not cached)
+     * @return rooms along the route, starting with from and ending with to,
+     * or null if there is no route (or either room is not reachable
+     * from the root)
+     */
+    public synchronized List<Room> route(Room from, Room to,
+                                         Strategy strategy) {
+        refresh();
+        int start = mapper.getId(from);
+        int end = mapper.getId(to);
+        if (start < 0 || end < 0) {
+            return null;
+        }
+        Long key = Pair.pack(start, end);
+        int[] ids = routes.get(key);
+        if (ids == null) {
+            ids = search(start, end, strategy);
+            if (cacheSize > 0) {
+                routes.put(key, ids == null ? NO_ROUTE : ids);
+            }
+        } else if (ids == NO_ROUTE) {
+            ids = null;
+        }
+        if (ids == null) {
+            return null;
+        }
+        List<Room> rooms = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            rooms.add(mapper.getRoom(id));
+        }
+        return Collections.unmodifiableList(rooms);
+    }
+
+    /**
+     * Find the exits to take along a shortest route
+     *
+     * @param from start room
+     * @param to   end room
+     * @return exit names in order (empty if from is to),
+     * or null if there is no route
+     */
+    public List<String> directions(Room from, Room to) {
+        List<Room> rooms = route(from, to);
+        if (rooms == null) {
+            return null;
+        }
+        List<String> exits = new ArrayList<>(rooms.size() - 1);
+        for (int i = 1; i < rooms.size(); i++) {
+            for (Map.Entry<String, Room> exit
+                    : rooms.get(i - 1).getExits().entrySet()) {
+                if (exit.getValue() == rooms.get(i)) {
+                    exits.add(exit.getKey());
+                    break;
+                }
+            }
+        }
+        return exits;
+    }
+
+    /**
+     * Number of exits along a shortest route
+     *
+     * @param from start room
+     * @param to   end room
+     * @return exits to take, or -1 if there is no route
+     */
+    public int distance(Room from, Room to) {
+        List<Room> rooms = route(from, to);
+        return rooms == null ? -1 : rooms.size() - 1;
+    }
+
+    /**
+     * Search for a route
+     *
+     * @param start    start room id
+     * @param end      end room id
+     * @param strategy how to search
+     * @return ids along the route or null if there is none
+     */
+    private int[] search(int start, int end, Strategy strategy) {
+        if (start == end) {
+            return new int[]{start};
+        }
+        newSearch();
+        switch (strategy) {
+            case BREADTH_FIRST:
+                return breadthFirst(start, end);
+            case A_STAR:
+                return aStar(start, end);
+            default:
+                return bidirectional(start, end);
+        }
+    }
+
+    /**
+     * Breadth first search out from start
+     *
+     * @param start start room id
+     * @param end   end room id (not start)
+     * @return ids along the route or null if there is none
+     */
+    private int[] breadthFirst(int start, int end) {
+        int head = 0;
+        int tail = 0;
+        forwardMark[start] = stamp;
+        forwardParent[start] = -1;
+        queue[tail++] = start;
+        while (head < tail) {
+            int room = queue[head++];
+            for (int i = exitStarts[room]; i < exitStarts[room + 1]; i++) {
+                int next = exitTargets[i];
+                if (forwardMark[next] != stamp) {
+                    forwardMark[next] = stamp;
+                    forwardParent[next] = room;
+                    if (next == end) {
+                        return trace(end, -1);
+                    }
+                    queue[tail++] = next;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Breadth first search out from start along exits, and back from end
+     * along entries, a whole level at a time on whichever side has fewer
+     * rooms waiting, until the two meet.
+     *
+     * @param start start room id
+     * @param end   end room id (not start)
+     * @return ids along the route or null if there is none
+     */
+    private int[] bidirectional(int start, int end) {
+        // The forward queue grows up from the front of queue and the
+        // backward queue down from the back (a room is in at most one)
+        int forwardHead = 0;
+        int forwardTail = 0;
+        int backwardHead = queue.length - 1;
+        int backwardTail = queue.length - 1;
+        forwardMark[start] = stamp;
+        forwardParent[start] = -1;
+        forwardDistance[start] = 0;
+        queue[forwardTail++] = start;
+        backwardMark[end] = stamp;
+        backwardParent[end] = -1;
+        backwardDistance[end] = 0;
+        queue[backwardTail--] = end;
+        int best = Integer.MAX_VALUE;
+        int meeting = -1;
+        while (forwardHead < forwardTail && backwardHead > backwardTail) {
+            if (forwardTail - forwardHead <= backwardHead - backwardTail) {
+                int levelEnd = forwardTail;
+                while (forwardHead < levelEnd) {
+                    int room = queue[forwardHead++];
+                    for (int i = exitStarts[room]; i < exitStarts[room + 1];
+                         i++) {
+                        int next = exitTargets[i];
+                        if (forwardMark[next] == stamp) {
+                            continue;
+                        }
+                        forwardMark[next] = stamp;
+                        forwardParent[next] = room;
+                        forwardDistance[next] = forwardDistance[room] + 1;
+                        if (backwardMark[next] == stamp) {
+                            int length = forwardDistance[next]
+                                    + backwardDistance[next];
+                            if (length < best) {
+                                best = length;
+                                meeting = next;
+                            }
+                        } else {
+                            queue[forwardTail++] = next;
+                        }
+                    }
+                }
+            } else {
+                int levelEnd = backwardTail;
+                while (backwardHead > levelEnd) {
+                    int room = queue[backwardHead--];
+                    for (int i = entryStarts[room]; i < entryStarts[room + 1];
+                         i++) {
+                        int previous = entryRooms[i];
+                        if (backwardMark[previous] == stamp) {
+                            continue;
+                        }
+                        backwardMark[previous] = stamp;
+                        backwardParent[previous] = room;
+                        backwardDistance[previous] =
+                                backwardDistance[room] + 1;
+                        if (forwardMark[previous] == stamp) {
+                            int length = forwardDistance[previous]
+                                    + backwardDistance[previous];
+                            if (length < best) {
+                                best = length;
+                                meeting = previous;
+                            }
+                        } else {
+                            queue[backwardTail--] = previous;
+                        }
+                    }
+                }
+            }
+            // Any route found later would be at least one exit longer
+            if (meeting >= 0) {
+                return trace(meeting, meeting);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Lower bound on the exits needed to get from a room to another:
+     * their coordinate distance over the most any one exit covers
+     *
+     * @param room room id
+     * @param end  end room id
+     * @return the bound
+     */
+    private int estimate(int room, int end) {
+        int distance = distance(mapper.getPackedCoord(room),
+                mapper.getPackedCoord(end));
+        return (distance + longestExit - 1) / longestExit;
+    }
+
+    /**
+     * A* search from start, trying first the rooms whose distance so far
+     * plus estimate() is smallest (and of those, the furthest from start,
+     * which on open grids avoids searching every equally good room).
+     * The estimate never overstates and drops by at most one per exit, so
+     * the first time end is taken from the heap the route to it is
+     * shortest.
+     *
+     * @param start start room id
+     * @param end   end room id (not start)
+     * @return ids along the route or null if there is none
+     */
+    private int[] aStar(int start, int end) {
+        int heapSize = 0;
+        // forwardMark: reached this search; backwardMark: finished
+        forwardMark[start] = stamp;
+        forwardParent[start] = -1;
+        forwardDistance[start] = 0;
+        heapSize = push(heapSize, start, key(estimate(start, end), 0));
+        while (heapSize > 0) {
+            int room = heapRooms[0];
+            heapSize = pop(heapSize);
+            if (backwardMark[room] == stamp) {
+                // Already finished with a shorter distance
+                continue;
+            }
+            if (room == end) {
+                return trace(end, -1);
+            }
+            backwardMark[room] = stamp;
+            int distance = forwardDistance[room] + 1;
+            for (int i = exitStarts[room]; i < exitStarts[room + 1]; i++) {
+                int next = exitTargets[i];
+                if (forwardMark[next] != stamp
+                        || distance < forwardDistance[next]) {
+                    forwardMark[next] = stamp;
+                    forwardParent[next] = room;
+                    forwardDistance[next] = distance;
+                    heapSize = push(heapSize, next,
+                            key(distance + estimate(next, end), distance));
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Heap priority of a room (smallest first)
+     *
+     * @param estimate distance from start plus estimate to end
+     * @param distance distance from start
+     * @return estimate in the high bits, then larger distances first
+     */
+    private static long key(int estimate, int distance) {
+        return ((long) estimate << 32) | (Integer.MAX_VALUE - distance);
+    }
+
+    /**
+     * Add a room to the heap
+     *
+     * @param size entries in the heap
+     * @param room room id
+     * @param key  priority from key()
+     * @return new heap size
+     */
+    private int push(int size, int room, long key) {
+        if (size == heapKeys.length) {
+            heapKeys = Arrays.copyOf(heapKeys, size * 2);
+            heapRooms = Arrays.copyOf(heapRooms, size * 2);
+        }
+        int i = size;
+        while (i > 0 && heapKeys[(i - 1) / 2] > key) {
+            heapKeys[i] = heapKeys[(i - 1) / 2];
+            heapRooms[i] = heapRooms[(i - 1) / 2];
+            i = (i - 1) / 2;
+        }
+        heapKeys[i] = key;
+        heapRooms[i] = room;
+        return size + 1;
+    }
+
+    /**
+     * Remove the first room (heapRooms[0]) from the heap
+     *
+     * @param size entries in the heap
+     * @return new heap size
+     */
+    private int pop(int size) {
+        size--;
+        long lastKey = heapKeys[size];
+        int lastRoom = heapRooms[size];
+        int i = 0;
+        while (2 * i + 1 < size) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && heapKeys[child + 1] < heapKeys[child]) {
+                child++;
+            }
+            if (heapKeys[child] >= lastKey) {
+                break;
+            }
+            heapKeys[i] = heapKeys[child];
+            heapRooms[i] = heapRooms[child];
+            i = child;
+        }
+        heapKeys[i] = lastKey;
+        heapRooms[i] = lastRoom;
+        return size;
+    }
+
+    /**
+     * Read a route back from the parent links
+     *
+     * @param forwardEnd  room to trace back to the start along
+     *                    forwardParent
+     * @param backwardEnd room to trace on to the end along backwardParent
+     *                    (-1 if the forward trace reaches the end)
+     * @return ids along the route
+     */
+    private int[] trace(int forwardEnd, int backwardEnd) {
+        int length = 0;
+        for (int room = forwardEnd; room >= 0; room = forwardParent[room]) {
+            length++;
+        }
+        if (backwardEnd >= 0) {
+            for (int room = backwardParent[backwardEnd]; room >= 0;
+                 room = backwardParent[room]) {
+                length++;
+            }
+        }
+        int[] ids = new int[length];
+        int i = 0;
+        for (int room = forwardEnd; room >= 0; room = forwardParent[room]) {
+            ids[i++] = room;
+        }
+        reverse(ids, i);
+        if (backwardEnd >= 0) {
+            for (int room = backwardParent[backwardEnd]; room >= 0;
+                 room = backwardParent[room]) {
+                ids[i++] = room;
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Reverse the start of an array
+     *
+     * @param ids   the array
+     * @param count number of entries to reverse
+     */
+    private static void reverse(int[] ids, int count) {
+        for (int i = 0, j = count - 1; i < j; i++, j--) {
+            int id = ids[i];
+            ids[i] = ids[j];
+            ids[j] = id;
+        }
+    }
+}
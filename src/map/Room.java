@@ -5,18 +5,78 @@ import exceptions.NullRoomException;
 import things.Critter;
 import things.Explorer;
 import things.Thing;
+import things.ThingIndex;
+import utils.Descriptions;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 /**
  * Building block for the map. Contains Things.
+ * <p>
+ * Rooms are thread safe. Changes to a room are made while holding one of
+ * a fixed set of locks (picked by the room's identity), so there is no
+ * lock per room and no lock for the whole map. Operations on two rooms
+ * take both locks in a fixed order, so they can not deadlock.
  */
 public class Room implements Serializable {
-    private java.lang.String desc;
-    private HashMap<String,Room> Exits;
-    private java.util.ArrayList<Thing> Contents;
+    // Number of locks shared between all rooms (a power of two)
+    private static final int STRIPE_COUNT = 64;
+    // The locks
+    private static final Object[] STRIPES = new Object[STRIPE_COUNT];
+    // Number of exits added or removed in any room so far
+    private static final AtomicLong EXIT_VERSION = new AtomicLong();
+    // Told before any room changes (see addBeforeChangeHook). Replaced
+    // rather than changed, so it can be read without locking
+    private static volatile List<Consumer<Room>> beforeChangeHooks =
+            Collections.emptyList();
+
+    static {
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            STRIPES[i] = new Object();
+        }
+    }
+
+    /**
+     * Labels of the four cardinal exits, in direction number order
+     * (see getExit(int))
+     */
+    public static final List<String> DIRECTIONS = Collections.unmodifiableList(
+            Arrays.asList("North", "South", "East", "West"));
+
+    private volatile java.lang.String desc;
+    // Rooms through the North, South, East and West exits (null if none).
+    // Read without locking; changed while holding the room's lock
+    private volatile Room north;
+    private volatile Room south;
+    private volatile Room east;
+    private volatile Room west;
+    // Exits with any other label, in the order added (null if none).
+    // Replaced rather than changed, so it can be read without locking
+    private volatile Map<String,Room> otherExits;
+    // Only used while holding the room's lock
+    private ThingIndex Contents;
+    // Told when the description, exits or contents change (null if none)
+    private transient volatile Consumer<Room> changeListener;
+    // Exit version after this room's exits last changed (0 if they have
+    // not). Set before the version goes up, so anyone who sees the new
+    // version sees this too
+    private transient volatile long exitStamp;
 
     /**
      * Constructor
@@ -25,11 +85,23 @@ public class Room implements Serializable {
      *             Note: any newlines in desc will be replaced with *
      */
     public Room(java.lang.String desc){
-        this.desc = desc.replace("\n","*").
-                replace("\r","*").
-                replace(";","*");
-        Exits=new HashMap<String,Room>();
-        Contents=new ArrayList<Thing>();
+        this.desc = Descriptions.sanitize(desc);
+        Contents=new ThingIndex();
+        Contents.setBeforeChangeListener(this::beforeChange);
+    }
+
+    /**
+     * Read a serialised room, then have its contents report changes
+     * again
+     *
+     * @param in stream to read from
+     * @throws IOException            if in fails
+     * @throws ClassNotFoundException if a class in the room is unknown
+     */
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        Contents.setBeforeChangeListener(this::beforeChange);
     }
 
     /**
@@ -48,9 +120,145 @@ public class Room implements Serializable {
      * @param s new Description
      */
     public void setDescription(java.lang.String s){
-        desc = s.replace("\n","*")
-                .replace("\r","*")
-                .replace(";","*");
+        java.lang.String description = Descriptions.sanitize(s);
+        synchronized (lock()) {
+            beforeChange();
+            desc = description;
+            changed();
+        }
+    }
+
+    /**
+     * A number which changes whenever an exit is added to or removed from
+     * any room, so that anything worked out from the exits (such as a
+     * route) can tell when it may be out of date.
+     *
+     * @return the current exit version
+     */
+    public static long getExitVersion() {
+        return EXIT_VERSION.get();
+    }
+
+    /**
+     * When this room's exits last changed
+     *
+     * @return the exit version just after the last change to this room's
+     * exits (0 if they have not changed)
+     */
+    long getExitStamp() {
+        return exitStamp;
+    }
+
+    /**
+     * Stamp this room and move the exit version on, after an exit was
+     * added or removed (call while holding the room's lock)
+     */
+    void exitsChanged() {
+        exitStamp = EXIT_VERSION.get() + 1;
+        EXIT_VERSION.incrementAndGet();
+    }
+
+    /**
+     * Index of the lock a room uses
+     *
+     * @param room the room
+     * @return index into STRIPES
+     */
+    private static int stripe(Room room) {
+        // Spread the identity hash so that nearby values use distant locks
+        return (System.identityHashCode(room) * 0x9E3779B9)
+                >>> (32 - Integer.numberOfTrailingZeros(STRIPE_COUNT));
+    }
+
+    /**
+     * The lock guarding this room. Hold it (with synchronized) to make
+     * several changes to the room at once.
+     *
+     * @return the lock
+     */
+    Object lock() {
+        return STRIPES[stripe(this)];
+    }
+
+    /**
+     * Run an action while holding the locks of two rooms.
+     * The locks are taken in index order, so this can not deadlock with
+     * another call locking the same rooms the other way round.
+     *
+     * @param room1  First room
+     * @param room2  Second room
+     * @param action action to run
+     * @param <T>    result type of action
+     * @return result of action
+     */
+    private static <T> T withLocks(Room room1, Room room2, Supplier<T> action) {
+        int stripe1 = stripe(room1);
+        int stripe2 = stripe(room2);
+        synchronized (STRIPES[Math.min(stripe1, stripe2)]) {
+            synchronized (STRIPES[Math.max(stripe1, stripe2)]) {
+                return action.get();
+            }
+        }
+    }
+
+    /**
+     * Run an action while no other thread can change this room, e.g. to
+     * check a Thing can be looted and remove it in one step.
+     * The action must not use any other room.
+     *
+     * @param action action to run
+     * @param <T>    result type of action
+     * @return result of action
+     */
+    public <T> T withLock(Supplier<T> action) {
+        synchronized (lock()) {
+            return action.get();
+        }
+    }
+
+    /**
+     * Direction number of a cardinal exit label
+     *
+     * @param name exit label
+     * @return index into DIRECTIONS, or -1 if name is not cardinal
+     * @throws NullPointerException if name is null
+     */
+    private static int direction(java.lang.String name){
+        switch (name) {
+            case "North":
+                return 0;
+            case "South":
+                return 1;
+            case "East":
+                return 2;
+            case "West":
+                return 3;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Set the room through a cardinal exit
+     * (call while holding the room's lock)
+     *
+     * @param direction index into DIRECTIONS
+     * @param target    room the exit goes to (null to remove the exit)
+     */
+    private void setExit(int direction, Room target){
+        switch (direction) {
+            case 0:
+                north = target;
+                break;
+            case 1:
+                south = target;
+                break;
+            case 2:
+                east = target;
+                break;
+            default:
+                west = target;
+        }
     }
 
     /**
@@ -60,34 +268,388 @@ public class Room implements Serializable {
      * @param target map.Room the exit goes to
      * @throws ExitExistsException if the room already has an exit of that name
      * @throws NullRoomException if target is null
+     * @throws NullPointerException if name is null
      */
     public void addExit(java.lang.String name, Room target)
             throws ExitExistsException,NullRoomException{
-        if (Exits.containsKey(name)){
-            throw new ExitExistsException();
+        synchronized (lock()) {
+            if (getExit(name) != null){
+                throw new ExitExistsException();
+            }
+            if (target==null){
+                throw new NullRoomException();
+            }
+            beforeChange();
+            int direction = direction(name);
+            if (direction >= 0) {
+                setExit(direction, target);
+            } else {
+                Map<String,Room> exits = otherExits == null
+                        ? new LinkedHashMap<String,Room>()
+                        : new LinkedHashMap<String,Room>(otherExits);
+                exits.put(name, target);
+                otherExits = exits;
+            }
+            exitsChanged();
+            changed();
         }
-        if (target==null){
-            throw new NullRoomException();
+    }
+
+    /**
+     * Where does an exit go?
+     *
+     * @param name Name of the exit
+     * @return the map.Room it goes to, or null if there is no such exit
+     * @throws NullPointerException if name is null
+     */
+    public Room getExit(java.lang.String name){
+        int direction = direction(name);
+        if (direction >= 0) {
+            return getExit(direction);
+        }
+        Map<String,Room> exits = otherExits;
+        return exits == null ? null : exits.get(name);
+    }
+
+    /**
+     * Where does a cardinal exit go?
+     *
+     * @param direction index into DIRECTIONS (0 North, 1 South, 2 East,
+     *                  3 West)
+     * @return the map.Room it goes to, or null if there is no such exit
+     * @throws IndexOutOfBoundsException if direction is not in [0, 3]
+     */
+    public Room getExit(int direction){
+        switch (direction) {
+            case 0:
+                return north;
+            case 1:
+                return south;
+            case 2:
+                return east;
+            case 3:
+                return west;
+            default:
+                throw new IndexOutOfBoundsException(
+                        "No direction " + direction);
         }
-        Exits.put(name, target);
+    }
+
+    /**
+     * Exits with labels other than North, South, East and West
+     *
+     * @return read only map of names to Rooms, in the order added
+     */
+    Map<java.lang.String,Room> getOtherExits(){
+        Map<String,Room> exits = otherExits;
+        return exits == null ? Collections.<String,Room>emptyMap()
+                : Collections.unmodifiableMap(exits);
     }
 
     /**
      * What exits are there from this map.Room?
+     * Cardinal exits come first (in DIRECTIONS order), then any others in
+     * the order they were added.
+     *
+     * @return read only map of names to Rooms (which reflects later changes)
+     */
+    public Map<java.lang.String,Room> getExits(){
+        return new ExitMap();
+    }
+
+    /**
+     * Read only view of the exits. Each iteration sees the exits as they
+     * were when it began.
+     */
+    private final class ExitMap extends AbstractMap<String,Room> {
+        /**
+         * Find an exit
+         *
+         * @param key exit label
+         * @return the room it goes to, or null if there is none
+         */
+        @Override
+        public Room get(Object key){
+            return key instanceof String ? getExit((String) key) : null;
+        }
+
+        /**
+         * Check for an exit
+         *
+         * @param key exit label
+         * @return true if there is such an exit
+         */
+        @Override
+        public boolean containsKey(Object key){
+            return get(key) != null;
+        }
+
+        /**
+         * Number of exits
+         *
+         * @return exit count
+         */
+        @Override
+        public int size(){
+            int size = 0;
+            for (int direction = 0; direction < 4; direction++) {
+                if (getExit(direction) != null) {
+                    size++;
+                }
+            }
+            Map<String,Room> exits = otherExits;
+            return exits == null ? size : size + exits.size();
+        }
+
+        /**
+         * The exits as label to room entries
+         *
+         * @return read only set of entries
+         */
+        @Override
+        public Set<Map.Entry<String,Room>> entrySet(){
+            return new AbstractSet<Map.Entry<String,Room>>() {
+                @Override
+                public Iterator<Map.Entry<String,Room>> iterator(){
+                    return exitIterator();
+                }
+
+                @Override
+                public int size(){
+                    return ExitMap.this.size();
+                }
+            };
+        }
+    }
+
+    /**
+     * Iterate over the exits as they are now
      *
-     * @return map of names to Rooms
+     * @return iterator over label to room entries
      */
-    public HashMap<java.lang.String,Room> getExits(){
-        return Exits;
+    private Iterator<Map.Entry<String,Room>> exitIterator(){
+        List<Map.Entry<String,Room>> entries = new ArrayList<>(4);
+        for (int direction = 0; direction < 4; direction++) {
+            Room target = getExit(direction);
+            if (target != null) {
+                entries.add(new AbstractMap.SimpleImmutableEntry<>(
+                        DIRECTIONS.get(direction), target));
+            }
+        }
+        Map<String,Room> exits = otherExits;
+        if (exits != null) {
+            for (Map.Entry<String,Room> exit : exits.entrySet()) {
+                entries.add(new AbstractMap.SimpleImmutableEntry<>(exit));
+            }
+        }
+        return Collections.unmodifiableList(entries).iterator();
     }
 
     /**
      * What Things are in this map.Room?
      *
-     * @return Things in the map.Room
+     * @return copy of the Things in the map.Room
+     */
+    public List<Thing> getContents(){
+        synchronized (lock()) {
+            return Contents.toList();
+        }
+    }
+
+    /**
+     * What Things of a type are in this map.Room?
+     *
+     * @param type type of Things wanted (subclasses are included)
+     * @param <T>  type of Things wanted
+     * @return copy of the matching Things in the map.Room
+     */
+    public <T extends Thing> List<T> getContents(Class<T> type){
+        synchronized (lock()) {
+            return Contents.toList(type);
+        }
+    }
+
+    /**
+     * How many Things are in this map.Room?
+     *
+     * @return number of Things
+     */
+    public int countContents(){
+        synchronized (lock()) {
+            return Contents.size();
+        }
+    }
+
+    /**
+     * How many Things of a type are in this map.Room?
+     *
+     * @param type type of Things to count (subclasses are included)
+     * @return number of matching Things
+     */
+    public int countContents(Class<? extends Thing> type){
+        synchronized (lock()) {
+            return Contents.count(type);
+        }
+    }
+
+    /**
+     * Is a Thing in this map.Room?
+     *
+     * @param item things.Thing to look for
+     * @return true if item is in the map.Room
+     */
+    public boolean contains(Thing item){
+        synchronized (lock()) {
+            return Contents.contains(item);
+        }
+    }
+
+    /**
+     * Total value of the Lootable Things in this map.Room
+     *
+     * @return the total
+     */
+    public double getValue(){
+        synchronized (lock()) {
+            return Contents.getValue();
+        }
+    }
+
+    /**
+     * Total value of the Lootable Things an explorer could take from this
+     * map.Room now (everything except critters which have not fainted)
+     *
+     * @return the total
+     */
+    public double getLootValue(){
+        synchronized (lock()) {
+            return Contents.getLootValue();
+        }
+    }
+
+    /**
+     * Set what to tell when the value of this map.Room's contents changes.
+     * The old listener is told the value dropped to zero and the new one
+     * that it rose from zero.
+     *
+     * @param listener listener, or null for none
+     */
+    void setValueListener(ThingIndex.ValueListener listener){
+        synchronized (lock()) {
+            Contents.setValueListener(listener);
+        }
+    }
+
+    /**
+     * Set what to tell when this map.Room's description, exits or contents
+     * (including the health of a critter in it) change. The listener is
+     * called while the room's lock is held, so it must not use any room.
+     *
+     * @param listener listener, or null for none
+     */
+    void setChangeListener(Consumer<Room> listener){
+        synchronized (lock()) {
+            changeListener = listener;
+            Contents.setChangeListener(
+                    listener == null ? null : () -> listener.accept(this));
+        }
+    }
+
+    /**
+     * Stop telling a listener about changes to this map.Room, unless
+     * another listener has been set since
+     *
+     * @param listener listener given to setChangeListener
+     */
+    void removeChangeListener(Consumer<Room> listener){
+        synchronized (lock()) {
+            if (changeListener == listener) {
+                setChangeListener(null);
+            }
+        }
+    }
+
+    /**
+     * Add a hook to be told about every room (of any map) just before it
+     * changes: its description, its exits, its contents or the health of
+     * a critter in it. Hooks are called while the room's lock is held (and
+     * perhaps another room's too), so they must only use that room.
+     *
+     * @param hook hook to add
      */
-    public java.util.ArrayList<Thing> getContents(){
-        return Contents;
+    static void addBeforeChangeHook(Consumer<Room> hook){
+        synchronized (Room.class) {
+            List<Consumer<Room>> hooks = new ArrayList<>(beforeChangeHooks);
+            hooks.add(hook);
+            beforeChangeHooks = hooks;
+        }
+    }
+
+    /**
+     * Remove a hook added by addBeforeChangeHook
+     *
+     * @param hook hook to remove
+     */
+    static void removeBeforeChangeHook(Consumer<Room> hook){
+        synchronized (Room.class) {
+            List<Consumer<Room>> hooks = new ArrayList<>(beforeChangeHooks);
+            hooks.remove(hook);
+            beforeChangeHooks = hooks.isEmpty()
+                    ? Collections.<Consumer<Room>>emptyList() : hooks;
+        }
+    }
+
+    /**
+     * Tell the before change hooks that this map.Room is about to change
+     * (call while holding the room's lock)
+     */
+    void beforeChange(){
+        List<Consumer<Room>> hooks = beforeChangeHooks;
+        for (int i = 0; i < hooks.size(); i++) {
+            hooks.get(i).accept(this);
+        }
+    }
+
+    /**
+     * Tell the change listener (if any) that this map.Room changed
+     */
+    private void changed(){
+        Consumer<Room> listener = changeListener;
+        if (listener != null) {
+            listener.accept(this);
+        }
+    }
+
+    /**
+     * Find a Thing in this map.Room by its short description
+     *
+     * @param shortDesc short description to look for
+     * @return the earliest Thing to enter with that description,
+     * or null if there is none
+     */
+    public Thing find(java.lang.String shortDesc){
+        synchronized (lock()) {
+            return Contents.find(shortDesc);
+        }
+    }
+
+    /**
+     * Find a Thing in this map.Room by its short description, type and a
+     * test. Takes time proportional to the number of Things with that
+     * description, not the number in the room.
+     *
+     * @param shortDesc short description to look for
+     * @param type      type of Thing wanted (subclasses are included)
+     * @param test      test the Thing must pass
+     * @param <T>       type of Thing wanted
+     * @return the earliest Thing to enter which matches,
+     * or null if there is none
+     */
+    public <T extends Thing> T find(java.lang.String shortDesc, Class<T> type,
+                                    Predicate<? super T> test){
+        synchronized (lock()) {
+            return Contents.find(shortDesc, type, test);
+        }
     }
 
     /**
@@ -97,7 +659,26 @@ public class Room implements Serializable {
      * @param name Name of exit to remove
      */
     public void removeExit(java.lang.String name){
-        Exits.remove(name);
+        if (name != null) {
+            synchronized (lock()) {
+                if (getExit(name) != null) {
+                    beforeChange();
+                    int direction = direction(name);
+                    if (direction >= 0) {
+                        setExit(direction, null);
+                    } else if (otherExits.size() == 1) {
+                        otherExits = null;
+                    } else {
+                        Map<String,Room> exits =
+                                new LinkedHashMap<String,Room>(otherExits);
+                        exits.remove(name);
+                        otherExits = exits;
+                    }
+                    exitsChanged();
+                    changed();
+                }
+            }
+        }
     }
 
     /**
@@ -106,21 +687,19 @@ public class Room implements Serializable {
      * @param item things.Thing to add
      */
     public void enter(Thing item){
-        Contents.add(item);
+        synchronized (lock()) {
+            Contents.add(item);
+        }
     }
 
     /**
      * Check whether the room has critter
+     * (call while holding the room's lock)
      *
      * @return true iff the room has critter
      */
     private boolean haveCritter(){
-        for (Thing things:Contents) {
-            if (things instanceof Critter) {
-                return true;
-            }
-        }
-        return false;
+        return Contents.count(Critter.class) > 0;
     }
 
     /**
@@ -132,17 +711,41 @@ public class Room implements Serializable {
      * @return true if removal was successful
      */
     public boolean leave(Thing item){
-        if (item instanceof Explorer && haveCritter() || !Contents.contains(item)) {
-            return false;
-        }else{
-            Contents.remove(item);
-            return true;
+        synchronized (lock()) {
+            if (item instanceof Explorer && haveCritter()) {
+                return false;
+            }
+            return Contents.remove(item);
         }
     }
 
+    /**
+     * Move item from one map.Room to another in one step: no other thread
+     * sees it in both rooms or in neither.
+     * Note: fails in the same cases as leave.
+     *
+     * @param item things.Thing to move
+     * @param from map.Room item is in
+     * @param to   map.Room to put item into
+     * @return true if item was moved
+     */
+    public static boolean move(Thing item, Room from, Room to) {
+        return withLocks(from, to, () -> {
+            if (!from.leave(item)) {
+                return false;
+            }
+            to.enter(item);
+            return true;
+        });
+    }
+
     /**
      * Connects two rooms both ways.
-     * Either both exits are created or neither are.
+     * Either both exits are created or neither are. Both rooms' locks are
+     * held while they are added, so code holding either lock (see
+     * withLock) sees both exits or neither. Exits are read without
+     * locking, so other readers may briefly see room1's exit without
+     * room2's.
      *
      * @param room1  First room
      * @param room2  Second room
@@ -160,12 +763,18 @@ public class Room implements Serializable {
         if (room1 == null || room2 == null) {
             throw new NullRoomException();
         }
-        if (room1.getExits().containsKey(label1)
-                || room2.getExits().containsKey(label2)) {
-            throw new ExitExistsException();
+        int stripe1 = stripe(room1);
+        int stripe2 = stripe(room2);
+        synchronized (STRIPES[Math.min(stripe1, stripe2)]) {
+            synchronized (STRIPES[Math.max(stripe1, stripe2)]) {
+                if (room1.getExit(label1) != null
+                        || room2.getExit(label2) != null) {
+                    throw new ExitExistsException();
+                }
+                room1.addExit(label1, room2);
+                room2.addExit(label2, room1);
+            }
         }
-        room1.addExit(label1, room2);
-        room2.addExit(label2, room1);
     }
 
 }
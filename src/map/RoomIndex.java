@@ -0,0 +1,112 @@
+package map;
+
+import java.util.Arrays;
+
+/**
+ * Give every reachable Room a dense id (0, 1, 2, ...) in walk order.
+ * The root always has id 0.
+ */
+public class RoomIndex extends MapWalker {
+    // Rooms in id order
+    private Room[] rooms;
+    // Number of rooms numbered so far
+    private int size;
+    // Open addressing table of room ids, keyed by room identity
+    // (slots hold id + 1, 0 marks an empty slot)
+    private int[] table;
+
+    /**
+     * Constructor
+     *
+     * @param root room to begin exploring from
+     */
+    public RoomIndex(Room root) {
+        super(root);
+        rooms = new Room[16];
+        table = new int[32];
+        size = 0;
+    }
+
+    /**
+     * Give room the next free id.
+     *
+     * @param room room to number
+     */
+    @Override
+    protected void visit(Room room) {
+        if (size == rooms.length) {
+            rooms = Arrays.copyOf(rooms, size * 2);
+        }
+        rooms[size] = room;
+        size++;
+        // Keep the table at most half full
+        if (size * 2 > table.length) {
+            table = new int[table.length * 2];
+            for (int id = 0; id < size; id++) {
+                table[slot(rooms[id])] = id + 1;
+            }
+        } else {
+            table[slot(room)] = size;
+        }
+    }
+
+    /**
+     * Find the table slot for room, or the empty slot where it would go
+     *
+     * @param room room to look for
+     * @return slot index
+     */
+    private int slot(Room room) {
+        int mask = table.length - 1;
+        // Spread the identity hash so that nearby values use distant slots
+        int i = (System.identityHashCode(room) * 0x9E3779B9) & mask;
+        while (table[i] != 0 && rooms[table[i] - 1] != room) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * Number of rooms found by the last walk
+     *
+     * @return room count
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Room with a given id
+     *
+     * @param id id to look up
+     * @return the room
+     * @throws IndexOutOfBoundsException if id is not in [0, size())
+     */
+    public Room getRoom(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("No room " + id);
+        }
+        return rooms[id];
+    }
+
+    /**
+     * Id of a room
+     *
+     * @param room room to look up
+     * @return id of room or -1 if it was not reached by the last walk
+     */
+    public int getId(Room room) {
+        return table[slot(room)] - 1;
+    }
+
+    /**
+     * Called by walk. Clear any state from previous walks.
+     */
+    @Override
+    public void reset() {
+        super.reset();
+        Arrays.fill(rooms, 0, size, null);
+        Arrays.fill(table, 0);
+        size = 0;
+    }
+}
@@ -1,7 +1,17 @@
 package things;
 
+import utils.Combat;
 import utils.Lootable;
 import utils.Mob;
+import utils.Varint;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
 
 /**
  * A non-player lootable mob
@@ -13,6 +23,9 @@ public class Critter extends Thing implements Mob, Lootable {
     private int health;
     // Default health (used to set a critter to be alive)
     private int maxHealth;
+    // Indexes holding the critter, told when its health changes
+    // (null until it is first added to one)
+    private transient List<ThingIndex> holders;
 
     /**
      * Constructor
@@ -52,9 +65,12 @@ public class Critter extends Thing implements Mob, Lootable {
      */
     @Override
     public void takeDamage(int amount) {
-        health -= amount;
-        if (health < 0) {
-            health = 0;
+        int newHealth = Math.max(health - amount, 0);
+        if (newHealth != health) {
+            boolean wasAlive = isAlive();
+            beforeHealthChange();
+            health = newHealth;
+            healthChanged(wasAlive != isAlive());
         }
     }
 
@@ -97,12 +113,8 @@ public class Critter extends Thing implements Mob, Lootable {
      */
     @Override
     public void fight(Mob mob) {
-        while (this.isAlive()&& mob.isAlive()) {
-            mob.takeDamage(getDamage());
-            if (mob.isAlive()) {
-                takeDamage(mob.getDamage());
-            }
-        }
+        // Worked out directly rather than hit by hit
+        Combat.fight(this, mob);
     }
 
     /**
@@ -133,10 +145,66 @@ public class Critter extends Thing implements Mob, Lootable {
      */
     @Override
     public void setAlive(boolean alive) {
-        health = alive ? maxHealth : 0;
+        int newHealth = alive ? maxHealth : 0;
+        if (newHealth != health) {
+            boolean wasAlive = isAlive();
+            beforeHealthChange();
+            health = newHealth;
+            healthChanged(wasAlive != isAlive());
+        }
+    }
+
+    /**
+     * Tell the indexes holding this critter that its health is about to
+     * change
+     */
+    private void beforeHealthChange() {
+        if (holders != null) {
+            for (ThingIndex holder : holders) {
+                holder.beforeHealthChange();
+            }
+        }
+    }
+
+    /**
+     * Tell the indexes holding this critter that its health changed
+     *
+     * @param lifeChanged true if it fainted or revived (and so whether it
+     *                    can be looted changed)
+     */
+    private void healthChanged(boolean lifeChanged) {
+        if (holders != null) {
+            for (ThingIndex holder : holders) {
+                holder.healthChanged(this, lifeChanged);
+            }
+        }
+    }
+
+    /**
+     * Called by an index when it starts holding this critter
+     *
+     * @param holder the index
+     */
+    void addHolder(ThingIndex holder) {
+        if (holders == null) {
+            holders = new ArrayList<>(1);
+        }
+        holders.add(holder);
+    }
+
+    /**
+     * Called by an index when it no longer holds this critter
+     *
+     * @param holder the index
+     */
+    void removeHolder(ThingIndex holder) {
+        if (holders != null) {
+            holders.remove(holder);
+        }
     }
 
     /** Return current health. */
+    @Override
     public int getHealth() {
         return health;
     }
@@ -162,17 +230,52 @@ public class Critter extends Thing implements Mob, Lootable {
      */
     public static Critter decode(String encoded) {
         try {
-            // Do not discard empty strings at the end
-            String[] string = encoded.split(";", -1);
-            if (string.length != 5 || !string[0].equals("C")) {
+            ReprCursor fields = new ReprCursor(encoded);
+            if (fields.nextChar() != 'C') {
                 return null;
             }
-            return new Critter(string[3], string[4],
-                    Double.parseDouble(string[1]),
-                    Integer.parseInt(string[2]));
+            double value = fields.nextDouble();
+            int health = fields.nextInt();
+            String shortDesc = fields.nextString();
+            String longDesc = fields.nextString();
+            // There must be exactly five fields
+            return fields.atEnd()
+                    ? new Critter(shortDesc, longDesc, value, health) : null;
         } catch (Exception e) {
             return null;
         }
     }
 
+    /**
+     * Write a binary record.
+     *
+     * @param out     Output to write to
+     * @param strings Gives the string table index for each description
+     * @throws IOException if out fails
+     */
+    @Override
+    public void write(DataOutput out, ToIntFunction<String> strings)
+            throws IOException {
+        out.writeByte('C');
+        out.writeDouble(value);
+        Varint.writeSigned(out, getHealth());
+        Varint.write(out, strings.applyAsInt(getShort()));
+        Varint.write(out, strings.applyAsInt(getLong()));
+    }
+
+    /**
+     * Factory to create a critter from a binary record
+     *
+     * @param in      Buffer positioned just after the 'C' type byte
+     * @param strings Gives the description for each string table index
+     * @return decoded Object
+     */
+    public static Critter read(ByteBuffer in, IntFunction<String> strings) {
+        double value = in.getDouble();
+        int health = Varint.readSigned(in);
+        String shortDesc = strings.apply(Varint.read(in));
+        return new Critter(shortDesc, strings.apply(Varint.read(in)),
+                value, health);
+    }
+
 }
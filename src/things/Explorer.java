@@ -1,10 +1,16 @@
 package things;
 
+import utils.Combat;
 import utils.Mob;
+import utils.Varint;
 
-import java.util.ArrayList;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.List;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
 
 /**
  * An explorer object
@@ -15,7 +21,7 @@ public class Explorer extends Thing implements Mob{
     // Starting health
     private static final int MAX_HEALTH = 10;
     // Things that the explorer holds
-    private List<Thing> inventory;
+    private ThingIndex inventory;
 
     /**
      * Constructor
@@ -27,7 +33,7 @@ public class Explorer extends Thing implements Mob{
     public Explorer(String shortDesc, String longDesc){
         super(shortDesc,longDesc);
         health = MAX_HEALTH;
-        inventory = new ArrayList<>();
+        inventory = new ThingIndex();
     }
 
     /**
@@ -40,7 +46,7 @@ public class Explorer extends Thing implements Mob{
     public Explorer(String shortDesc, String longDesc, int health){
         super(shortDesc,longDesc);
         this.health = health;
-        inventory= new ArrayList<>();
+        inventory= new ThingIndex();
     }
 
     /**
@@ -52,7 +58,7 @@ public class Explorer extends Thing implements Mob{
     public Explorer(Explorer explorer){
         super(explorer.getShort(), explorer.getLong());
         this.health = explorer.health;
-        inventory = new ArrayList<>();
+        inventory = new ThingIndex();
     }
 
     /**
@@ -76,6 +82,7 @@ public class Explorer extends Thing implements Mob{
     }
 
     /** Return health of player */
+    @Override
     public int getHealth(){
         return health;
     }
@@ -128,12 +135,8 @@ public class Explorer extends Thing implements Mob{
      */
     @Override
     public void fight(Mob mob) {
-        while (this.isAlive()&& mob.isAlive()) {
-            mob.takeDamage(getDamage());
-            if (mob.isAlive()) {
-                takeDamage(mob.getDamage());
-            }
-        }
+        // Worked out directly rather than hit by hit
+        Combat.fight(this, mob);
     }
 
     /**
@@ -150,10 +153,30 @@ public class Explorer extends Thing implements Mob{
     /**
      * What is in the player's inventory.
      *
-     * @return Things in the inventory
+     * @return Things in the inventory (a copy, in the order they were added)
      */
     public List<Thing> getContents() {
-        return Collections.unmodifiableList(inventory);
+        return Collections.unmodifiableList(inventory.toList());
+    }
+
+    /**
+     * Total value of the player's inventory
+     *
+     * @return the total
+     */
+    public double getInventoryValue() {
+        return inventory.getValue();
+    }
+
+    /**
+     * Find a thing in the player's inventory
+     *
+     * @param desc Short description of the thing
+     * @return the earliest added thing with that description,
+     * or null if not found
+     */
+    public Thing find(String desc){
+        return inventory.find(desc);
     }
 
     /**
@@ -181,13 +204,11 @@ public class Explorer extends Thing implements Mob{
      * @return things removed or null if not found
      */
     public Thing drop(String desc){
-        for (Thing things : inventory){
-            if (things.getShort().equals(desc)){
-                inventory.remove(things);
-                return things;
-            }
+        Thing things = inventory.find(desc);
+        if (things != null){
+            inventory.remove(things);
         }
-        return null;
+        return things;
     }
 
     /**
@@ -211,16 +232,48 @@ public class Explorer extends Thing implements Mob{
      */
     public static Explorer decode(String encoded) {
         try {
-            // Do not discard empty strings at the end
-            String[] string = encoded.split(";", -1);
-            if (string.length != 4 || !string[0].equals("E")) {
+            ReprCursor fields = new ReprCursor(encoded);
+            if (fields.nextChar() != 'E') {
                 return null;
             }
-            return new Explorer(string[2], string[3],
-                    Integer.parseInt(string[1]));
+            int health = fields.nextInt();
+            String shortDesc = fields.nextString();
+            String longDesc = fields.nextString();
+            // There must be exactly four fields
+            return fields.atEnd()
+                    ? new Explorer(shortDesc, longDesc, health) : null;
         } catch (Exception e) {
             return null;
         }
     }
 
+    /**
+     * Write a binary record.
+     *
+     * @param out     Output to write to
+     * @param strings Gives the string table index for each description
+     * @throws IOException if out fails
+     */
+    @Override
+    public void write(DataOutput out, ToIntFunction<String> strings)
+            throws IOException {
+        out.writeByte('E');
+        Varint.writeSigned(out, getHealth());
+        Varint.write(out, strings.applyAsInt(getShort()));
+        Varint.write(out, strings.applyAsInt(getLong()));
+    }
+
+    /**
+     * Factory to create an explorer from a binary record
+     *
+     * @param in      Buffer positioned just after the 'E' type byte
+     * @param strings Gives the description for each string table index
+     * @return decoded Object
+     */
+    public static Explorer read(ByteBuffer in, IntFunction<String> strings) {
+        int health = Varint.readSigned(in);
+        String shortDesc = strings.apply(Varint.read(in));
+        return new Explorer(shortDesc, strings.apply(Varint.read(in)), health);
+    }
+
 }
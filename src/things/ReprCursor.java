@@ -0,0 +1,200 @@
+package things;
+
+/**
+ * Reads the semi-colon separated fields of a repr() string one at a time,
+ * without splitting the string up first.
+ */
+public class ReprCursor {
+    // Powers of ten which doubles hold exactly
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    // Largest mantissa a double holds exactly
+    private static final long MAX_EXACT = 1L << 53;
+
+    // The encoded string
+    private String encoded;
+    // Start of the next field
+    private int position;
+    // End of the next field (index of its ';' or the string length)
+    private int end;
+
+    /**
+     * Constructor
+     *
+     * @param encoded repr() form of an object
+     * @throws NullPointerException if encoded is null
+     */
+    public ReprCursor(String encoded) {
+        this.encoded = encoded;
+        position = 0;
+        findEnd();
+    }
+
+    /**
+     * Find where the field starting at position ends
+     */
+    private void findEnd() {
+        int i = encoded.indexOf(';', position);
+        end = i < 0 ? encoded.length() : i;
+    }
+
+    /**
+     * Move past the current field
+     */
+    private void advance() {
+        position = end + 1;
+        if (!atEnd()) {
+            findEnd();
+        }
+    }
+
+    /**
+     * Have all fields been read?
+     *
+     * @return true if there are no more fields
+     */
+    public boolean atEnd() {
+        return position > encoded.length();
+    }
+
+    /**
+     * Check there is another field
+     *
+     * @throws IllegalArgumentException if all fields have been read
+     */
+    private void checkField() {
+        if (atEnd()) {
+            throw new IllegalArgumentException("Missing field");
+        }
+    }
+
+    /**
+     * Read a field which should be exactly one character
+     *
+     * @return the character
+     * @throws IllegalArgumentException if the field is missing
+     *                                  or not one character
+     */
+    public char nextChar() {
+        checkField();
+        if (end - position != 1) {
+            throw new IllegalArgumentException("Expected one character");
+        }
+        char c = encoded.charAt(position);
+        advance();
+        return c;
+    }
+
+    /**
+     * Read a field as a String
+     *
+     * @return the field (possibly empty)
+     * @throws IllegalArgumentException if the field is missing
+     */
+    public String nextString() {
+        checkField();
+        String s = encoded.substring(position, end);
+        advance();
+        return s;
+    }
+
+    /**
+     * Read a field as a decimal int with an optional sign
+     *
+     * @return the value
+     * @throws IllegalArgumentException if the field is missing
+     *                                  or not an int
+     */
+    public int nextInt() {
+        checkField();
+        int i = position;
+        boolean negative = false;
+        if (i < end && (encoded.charAt(i) == '-' || encoded.charAt(i) == '+')) {
+            negative = encoded.charAt(i) == '-';
+            i++;
+        }
+        if (i == end) {
+            throw new NumberFormatException("Empty number");
+        }
+        // Accumulate negatively so that Integer.MIN_VALUE fits
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = encoded.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Bad digit");
+            }
+            value = value * 10 - digit;
+            if (value < Integer.MIN_VALUE) {
+                throw new NumberFormatException("Out of range");
+            }
+        }
+        if (!negative && value == Integer.MIN_VALUE) {
+            throw new NumberFormatException("Out of range");
+        }
+        advance();
+        return (int) (negative ? value : -value);
+    }
+
+    /**
+     * Read a field as a double, accepting what Double.parseDouble accepts.
+     * Plain decimals such as those written by repr() are converted
+     * directly; anything else falls back to Double.parseDouble.
+     *
+     * @return the value
+     * @throws IllegalArgumentException if the field is missing
+     *                                  or not a double
+     */
+    public double nextDouble() {
+        checkField();
+        double value = parsePlainDecimal();
+        if (Double.isNaN(value)) {
+            value = Double.parseDouble(encoded.substring(position, end));
+        }
+        advance();
+        return value;
+    }
+
+    /**
+     * Convert the current field when it is of the form [-+]digits[.digits]
+     * and its digits fit exactly in a double. The result is then correctly
+     * rounded, the same as Double.parseDouble.
+     *
+     * @return the value, or NaN if the field is not of that simple form
+     */
+    private double parsePlainDecimal() {
+        int i = position;
+        boolean negative = false;
+        if (i < end && (encoded.charAt(i) == '-' || encoded.charAt(i) == '+')) {
+            negative = encoded.charAt(i) == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        for (; i < end; i++) {
+            char c = encoded.charAt(i);
+            if (c == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else if (c >= '0' && c <= '9') {
+                mantissa = mantissa * 10 + (c - '0');
+                if (mantissa >= MAX_EXACT) {
+                    return Double.NaN;
+                }
+                digits++;
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+            } else {
+                return Double.NaN;
+            }
+        }
+        if (digits == 0 || fractionDigits >= POWERS_OF_TEN.length) {
+            return Double.NaN;
+        }
+        double value = fractionDigits > 0
+                ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+        return negative ? -value : value;
+    }
+}
@@ -1,6 +1,11 @@
 package things;
 
+import utils.Descriptions;
+
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
+import java.util.function.ToIntFunction;
 
 /**
  * Base class for anything which can be found in a map.Room
@@ -26,12 +31,11 @@ public abstract class Thing implements Serializable{
      }
 
     /**
-     * Replace characters in description strings
+     * Replace characters in description strings (and share equal
+     * descriptions, see utils.Descriptions)
      */
     private String replaceDesc(String description) {
-        return description.replace(";", "*")
-                .replace("\n", "*")
-                .replace("\r", "*");
+        return Descriptions.sanitize(description);
     }
 
     /**
@@ -98,4 +102,15 @@ public abstract class Thing implements Serializable{
      * the type and recreate it.
      */
     public abstract String repr();
+
+    /**
+     * Write a binary record of the object suitable for saving.
+     * The record starts with the same type character as repr().
+     *
+     * @param out     Output to write to
+     * @param strings Gives the string table index for each description
+     * @throws IOException if out fails
+     */
+    public abstract void write(DataOutput out, ToIntFunction<String> strings)
+            throws IOException;
 }
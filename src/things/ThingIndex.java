@@ -0,0 +1,557 @@
+package things;
+
+import utils.Lootable;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * A collection of Things (such as a room's contents or an inventory), in
+ * the order they were added, indexed so that adding, removing, membership,
+ * counting by type and finding by short description take constant time.
+ * <p>
+ * Things are kept in a doubly linked list. Each is also linked into a
+ * bucket of the Things of the same class and a bucket of the Things with
+ * the same short description. An identity map finds the node for a Thing.
+ * (A Thing which is added twice is held twice; remove takes out its
+ * earliest copy, as ArrayList.remove would.)
+ * <p>
+ * The index also keeps running totals of the value of its Lootable things
+ * and of those an explorer could take now (critters only once they have
+ * fainted: critters tell the indexes holding them when that changes).
+ * A change listener can also be told whenever anything in the index
+ * changes, including the health of a critter it holds.
+ * <p>
+ * A Thing is filed under the short description it had when added, so it
+ * should not be renamed while in the index. Not thread safe.
+ */
+public final class ThingIndex implements Serializable {
+    /**
+     * Told whenever the value totals of an index change
+     */
+    public interface ValueListener {
+        /**
+         * The totals of an index changed
+         *
+         * @param valueChange     change in the value of all Lootable things
+         * @param lootValueChange change in the value of those which can
+         *                        be taken now
+         */
+        void valueChanged(double valueChange, double lootValueChange);
+    }
+
+    /**
+     * A Thing in the list
+     */
+    private static final class Node {
+        // The thing
+        final Thing thing;
+        // Short description the thing was filed under
+        final String name;
+        // Neighbours in the whole list
+        Node prev;
+        Node next;
+        // Neighbours in the bucket for the thing's class
+        Node typePrev;
+        Node typeNext;
+        // Neighbours in the bucket for the thing's short description
+        Node namePrev;
+        Node nameNext;
+        // Later copy of the same thing (null if none)
+        Node nextSame;
+
+        /**
+         * Constructor
+         *
+         * @param thing the thing
+         */
+        Node(Thing thing) {
+            this.thing = thing;
+            name = thing == null ? null : thing.getShortDescription();
+        }
+    }
+
+    /**
+     * The Things of one class or name, in the order they were added
+     */
+    private static final class Bucket {
+        // Ends of the bucket
+        Node first;
+        Node last;
+        // Number of things in the bucket
+        int size;
+    }
+
+    // Version of the serialised form (see writeObject)
+    private static final long serialVersionUID = 1L;
+    // Things expected in an index once anything is added
+    private static final int EXPECTED_SIZE = 4;
+
+    // Ends of the list
+    private transient Node first;
+    private transient Node last;
+    // Number of things (counting copies)
+    private transient int size;
+    // Earliest node holding each thing. This and the bucket maps are
+    // made by the first add (most rooms never hold anything), so all
+    // three are null while nothing has been added.
+    private transient IdentityHashMap<Thing, Node> nodes;
+    // Bucket for each class of thing (buckets are never removed)
+    private transient HashMap<Class<?>, Bucket> buckets;
+    // Bucket for each short description (removed once empty)
+    private transient HashMap<String, Bucket> names;
+    // Total value of the Lootable things, and of those which can be
+    // taken now
+    private transient double value;
+    private transient double lootValue;
+    // Number of Lootable things, and of those which can be taken now
+    // (the totals are set to exactly zero when these are)
+    private transient int valued;
+    private transient int lootable;
+    // Told when the totals change (null if none)
+    private transient ValueListener listener;
+    // Told when anything in the index changes (null if none)
+    private transient Runnable changeListener;
+    // Told just before anything in the index changes (null if none)
+    private transient Runnable beforeChangeListener;
+
+    /**
+     * Constructor
+     */
+    public ThingIndex() {
+    }
+
+    /**
+     * Number of things
+     *
+     * @return thing count
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Is a thing here?
+     *
+     * @param thing thing to look for
+     * @return true if thing has been added (and not since removed)
+     */
+    public boolean contains(Thing thing) {
+        return nodes != null && nodes.containsKey(thing);
+    }
+
+    /**
+     * Add a thing at the end
+     *
+     * @param thing thing to add
+     */
+    public void add(Thing thing) {
+        beforeChange();
+        if (nodes == null) {
+            nodes = new IdentityHashMap<>(EXPECTED_SIZE);
+            buckets = new HashMap<>(EXPECTED_SIZE);
+            names = new HashMap<>(EXPECTED_SIZE);
+        }
+        Node node = new Node(thing);
+        node.prev = last;
+        if (last == null) {
+            first = node;
+        } else {
+            last.next = node;
+        }
+        last = node;
+
+        Class<?> type = thing == null ? Void.class : thing.getClass();
+        Bucket bucket = buckets.get(type);
+        if (bucket == null) {
+            bucket = new Bucket();
+            buckets.put(type, bucket);
+        }
+        node.typePrev = bucket.last;
+        if (bucket.last == null) {
+            bucket.first = node;
+        } else {
+            bucket.last.typeNext = node;
+        }
+        bucket.last = node;
+        bucket.size++;
+
+        if (node.name != null) {
+            Bucket named = names.get(node.name);
+            if (named == null) {
+                named = new Bucket();
+                names.put(node.name, named);
+            }
+            node.namePrev = named.last;
+            if (named.last == null) {
+                named.first = node;
+            } else {
+                named.last.nameNext = node;
+            }
+            named.last = node;
+            named.size++;
+        }
+
+        Node same = nodes.putIfAbsent(thing, node);
+        if (same != null) {
+            while (same.nextSame != null) {
+                same = same.nextSame;
+            }
+            same.nextSame = node;
+        } else if (thing instanceof Critter) {
+            ((Critter) thing).addHolder(this);
+        }
+        size++;
+        if (thing instanceof Lootable) {
+            changeValue(thing, 1);
+        }
+        changed();
+    }
+
+    /**
+     * Remove the earliest copy of a thing
+     *
+     * @param thing thing to remove
+     * @return true if thing was found
+     */
+    public boolean remove(Thing thing) {
+        if (nodes == null) {
+            return false;
+        }
+        Node node = nodes.get(thing);
+        if (node == null) {
+            return false;
+        }
+        beforeChange();
+        if (node.nextSame == null) {
+            nodes.remove(thing);
+            if (thing instanceof Critter) {
+                ((Critter) thing).removeHolder(this);
+            }
+        } else {
+            nodes.put(thing, node.nextSame);
+        }
+
+        if (node.prev == null) {
+            first = node.next;
+        } else {
+            node.prev.next = node.next;
+        }
+        if (node.next == null) {
+            last = node.prev;
+        } else {
+            node.next.prev = node.prev;
+        }
+
+        Bucket bucket =
+                buckets.get(thing == null ? Void.class : thing.getClass());
+        if (node.typePrev == null) {
+            bucket.first = node.typeNext;
+        } else {
+            node.typePrev.typeNext = node.typeNext;
+        }
+        if (node.typeNext == null) {
+            bucket.last = node.typePrev;
+        } else {
+            node.typeNext.typePrev = node.typePrev;
+        }
+        bucket.size--;
+
+        if (node.name != null) {
+            Bucket named = names.get(node.name);
+            if (node.namePrev == null) {
+                named.first = node.nameNext;
+            } else {
+                node.namePrev.nameNext = node.nameNext;
+            }
+            if (node.nameNext == null) {
+                named.last = node.namePrev;
+            } else {
+                node.nameNext.namePrev = node.namePrev;
+            }
+            if (--named.size == 0) {
+                names.remove(node.name);
+            }
+        }
+        size--;
+        if (thing instanceof Lootable) {
+            changeValue(thing, -1);
+        }
+        changed();
+        return true;
+    }
+
+    /**
+     * Can an explorer take a Lootable thing now?
+     *
+     * @param thing the thing
+     * @return false for a live critter, otherwise true
+     */
+    private static boolean canTake(Thing thing) {
+        return !(thing instanceof Critter) || !((Critter) thing).isAlive();
+    }
+
+    /**
+     * Add copies of a Lootable thing to the totals (or take them away)
+     *
+     * @param thing  the thing
+     * @param copies number of copies added (negative if removed)
+     */
+    private void changeValue(Thing thing, int copies) {
+        double oldValue = value;
+        double oldLootValue = lootValue;
+        double change = ((Lootable) thing).getValue() * copies;
+        valued += copies;
+        value = valued == 0 ? 0 : value + change;
+        if (canTake(thing)) {
+            lootable += copies;
+            lootValue = lootable == 0 ? 0 : lootValue + change;
+        }
+        if (listener != null) {
+            listener.valueChanged(value - oldValue, lootValue - oldLootValue);
+        }
+    }
+
+    /**
+     * Called by a critter held by this index when its health changes
+     *
+     * @param critter     the critter
+     * @param lifeChanged true if it fainted or revived
+     */
+    void healthChanged(Critter critter, boolean lifeChanged) {
+        if (lifeChanged && nodes != null) {
+            int copies = 0;
+            for (Node node = nodes.get(critter); node != null;
+                 node = node.nextSame) {
+                copies++;
+            }
+            double oldLootValue = lootValue;
+            int change = critter.isAlive() ? -copies : copies;
+            lootable += change;
+            lootValue = lootable == 0 ? 0
+                    : lootValue + critter.getValue() * change;
+            if (listener != null && copies > 0) {
+                listener.valueChanged(0, lootValue - oldLootValue);
+            }
+        }
+        changed();
+    }
+
+    /**
+     * Called by a critter held by this index just before its health
+     * changes
+     */
+    void beforeHealthChange() {
+        beforeChange();
+    }
+
+    /**
+     * Tell the before change listener (if any) that something is about
+     * to change
+     */
+    private void beforeChange() {
+        if (beforeChangeListener != null) {
+            beforeChangeListener.run();
+        }
+    }
+
+    /**
+     * Tell the change listener (if any) that something changed
+     */
+    private void changed() {
+        if (changeListener != null) {
+            changeListener.run();
+        }
+    }
+
+    /**
+     * Total value of the Lootable things
+     *
+     * @return the total
+     */
+    public double getValue() {
+        return value;
+    }
+
+    /**
+     * Total value of the Lootable things an explorer could take now
+     * (everything except critters which have not fainted)
+     *
+     * @return the total
+     */
+    public double getLootValue() {
+        return lootValue;
+    }
+
+    /**
+     * Set what to tell when the totals change. The old listener is told
+     * the totals dropped to zero, and the new one that they rose from
+     * zero, so that each can keep a sum over many indexes.
+     *
+     * @param newListener listener, or null for none
+     */
+    public void setValueListener(ValueListener newListener) {
+        if (listener != null) {
+            listener.valueChanged(-value, -lootValue);
+        }
+        listener = newListener;
+        if (listener != null) {
+            listener.valueChanged(value, lootValue);
+        }
+    }
+
+    /**
+     * Set what to tell whenever a thing is added or removed, or a critter
+     * in the index changes health
+     *
+     * @param listener listener, or null for none
+     */
+    public void setChangeListener(Runnable listener) {
+        changeListener = listener;
+    }
+
+    /**
+     * Set what to tell just before a thing is added or removed, or a
+     * critter in the index changes health (e.g. so the old state can be
+     * copied)
+     *
+     * @param listener listener, or null for none
+     */
+    public void setBeforeChangeListener(Runnable listener) {
+        beforeChangeListener = listener;
+    }
+
+    /**
+     * Find the earliest added Thing with a short description
+     *
+     * @param name short description to look for
+     * @return the thing or null if there is none
+     */
+    public Thing find(String name) {
+        Bucket named = names == null ? null : names.get(name);
+        return named == null ? null : named.first.thing;
+    }
+
+    /**
+     * Find the earliest added Thing with a short description which is of
+     * a type and passes a test. Takes time proportional to the number of
+     * things with that description.
+     *
+     * @param name short description to look for
+     * @param type type of thing wanted (subclasses are included)
+     * @param test test the thing must pass
+     * @param <T>  type of thing wanted
+     * @return the thing or null if there is none
+     */
+    public <T> T find(String name, Class<T> type, Predicate<? super T> test) {
+        Bucket named = names == null ? null : names.get(name);
+        if (named != null) {
+            for (Node node = named.first; node != null; node = node.nameNext) {
+                if (type.isInstance(node.thing)) {
+                    T thing = type.cast(node.thing);
+                    if (test.test(thing)) {
+                        return thing;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Number of things of a type (including its subclasses).
+     * Takes time proportional to the number of classes ever added,
+     * not the number of things.
+     *
+     * @param type type to count
+     * @return number of things which are instances of type
+     */
+    public int count(Class<?> type) {
+        int count = 0;
+        if (buckets == null) {
+            return count;
+        }
+        for (Map.Entry<Class<?>, Bucket> entry : buckets.entrySet()) {
+            if (type.isAssignableFrom(entry.getKey())) {
+                count += entry.getValue().size;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * All things, in the order they were added
+     *
+     * @return new list of the things
+     */
+    public List<Thing> toList() {
+        List<Thing> list = new ArrayList<>(size);
+        for (Node node = first; node != null; node = node.next) {
+            list.add(node.thing);
+        }
+        return list;
+    }
+
+    /**
+     * Things of one type (including its subclasses). Things of the same
+     * class are in the order they were added.
+     *
+     * @param type type of things wanted
+     * @param <T>  type of things wanted
+     * @return new list of the things
+     */
+    public <T> List<T> toList(Class<T> type) {
+        List<T> list = new ArrayList<>();
+        if (buckets == null) {
+            return list;
+        }
+        for (Map.Entry<Class<?>, Bucket> entry : buckets.entrySet()) {
+            if (type.isAssignableFrom(entry.getKey())) {
+                for (Node node = entry.getValue().first; node != null;
+                     node = node.typeNext) {
+                    list.add(type.cast(node.thing));
+                }
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Write the things in order (rather than the linked nodes, which
+     * would be written recursively)
+     *
+     * @param out stream to write to
+     * @throws IOException if out fails
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(size);
+        for (Node node = first; node != null; node = node.next) {
+            out.writeObject(node.thing);
+        }
+    }
+
+    /**
+     * Rebuild the list and index from the things written by writeObject
+     *
+     * @param in stream to read from
+     * @throws IOException            if in fails
+     * @throws ClassNotFoundException if a thing's class is unknown
+     */
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            add((Thing) in.readObject());
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package things;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * Registry of the kinds of Thing which can be saved and loaded.
+ * Each kind is known by the type character which starts both its repr()
+ * form (followed by ';') and its binary record.
+ */
+public final class ThingTypes {
+    // Decoders for the repr() form, by type character
+    private static final Map<Character, Function<String, ? extends Thing>>
+            decoders = new ConcurrentHashMap<>();
+    // Readers for the binary record, by type character
+    private static final Map<Character,
+            BiFunction<ByteBuffer, IntFunction<String>, ? extends Thing>>
+            readers = new ConcurrentHashMap<>();
+
+    static {
+        register('E', Explorer::decode, Explorer::read);
+        register('$', Treasure::decode, Treasure::read);
+        register('C', Critter::decode, Critter::read);
+    }
+
+    /**
+     * Not instantiable
+     */
+    private ThingTypes() {
+    }
+
+    /**
+     * Add (or replace) a kind of Thing
+     *
+     * @param type    Type character starting repr() and binary records
+     * @param decoder Factory from the repr() form, returning null on failure
+     * @param reader  Factory from a binary record, given a buffer
+     *                positioned just after the type byte
+     */
+    public static void register(char type,
+            Function<String, ? extends Thing> decoder,
+            BiFunction<ByteBuffer, IntFunction<String>, ? extends Thing> reader) {
+        decoders.put(type, decoder);
+        readers.put(type, reader);
+    }
+
+    /**
+     * Decode a String into a things.Thing.
+     *
+     * @param encoded String to decode
+     * @return Decoded things.Thing or null on failure.
+     * (null arguments, unknown types or incorrectly encoded input)
+     */
+    public static Thing decode(String encoded) {
+        if (encoded == null || encoded.length() < 2
+                || encoded.charAt(1) != ';') {
+            return null;
+        }
+        Function<String, ? extends Thing> decoder =
+                decoders.get(encoded.charAt(0));
+        return decoder == null ? null : decoder.apply(encoded);
+    }
+
+    /**
+     * Read a binary record into a things.Thing.
+     *
+     * @param in      Buffer positioned at the record's type byte
+     * @param strings Gives the string for each string table index
+     * @return Decoded things.Thing
+     * @throws IllegalArgumentException if the type is unknown
+     */
+    public static Thing read(ByteBuffer in, IntFunction<String> strings) {
+        char type = (char) (in.get() & 0xFF);
+        BiFunction<ByteBuffer, IntFunction<String>, ? extends Thing> reader =
+                readers.get(type);
+        if (reader == null) {
+            throw new IllegalArgumentException("Unknown thing type " + type);
+        }
+        return reader.apply(in, strings);
+    }
+}
@@ -1,6 +1,13 @@
 package things;
 
 import utils.Lootable;
+import utils.Varint;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
 
 /**
  * Lootable object which doesn't fight.
@@ -59,14 +66,43 @@ public class Treasure extends Thing implements Lootable {
      */
     public static Treasure decode(String encoded) {
         try {
-            // Do not discard empty strings at the end
-            String[] string = encoded.split(";", -1);
-            if (string.length != 3 || !string[0].equals("$")) {
+            ReprCursor fields = new ReprCursor(encoded);
+            if (fields.nextChar() != '$') {
                 return null;
             }
-            return new Treasure(string[2], Double.parseDouble(string[1]));
+            double value = fields.nextDouble();
+            String shortDesc = fields.nextString();
+            // There must be exactly three fields
+            return fields.atEnd() ? new Treasure(shortDesc, value) : null;
         } catch (Exception e) {
             return null;
         }
     }
+
+    /**
+     * Write a binary record.
+     *
+     * @param out     Output to write to
+     * @param strings Gives the string table index for each description
+     * @throws IOException if out fails
+     */
+    @Override
+    public void write(DataOutput out, ToIntFunction<String> strings)
+            throws IOException {
+        out.writeByte('$');
+        out.writeDouble(value);
+        Varint.write(out, strings.applyAsInt(getShortDescription()));
+    }
+
+    /**
+     * Factory to create treasure from a binary record
+     *
+     * @param in      Buffer positioned just after the '$' type byte
+     * @param strings Gives the description for each string table index
+     * @return decoded Object
+     */
+    public static Treasure read(ByteBuffer in, IntFunction<String> strings) {
+        double value = in.getDouble();
+        return new Treasure(strings.apply(Varint.read(in)), value);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,119 @@
+package utils;
+
+/**
+ * Works out fights between mobs without playing them out hit by hit.
+ * <p>
+ * In a fight the attacker hits first, then the mobs take turns until one
+ * of them falls over. A mob with health h hit for d each turn falls over
+ * after ceil(h / d) hits, so the attacker wins if it needs no more hits
+ * than the defender, and the winner has been hit one time fewer than
+ * the loser (attacker) or the same number of times (defender).
+ */
+public final class Combat {
+
+    /**
+     * Health of two mobs after a fight
+     */
+    public static final class Outcome {
+        // Health left to the mob which hit first
+        public final int attackerHealth;
+        // Health left to the other mob
+        public final int defenderHealth;
+        // Number of hits made by both mobs together
+        public final long hits;
+
+        /**
+         * Constructor
+         *
+         * @param attackerHealth health left to the mob which hit first
+         * @param defenderHealth health left to the other mob
+         * @param hits           number of hits made by both mobs together
+         */
+        Outcome(int attackerHealth, int defenderHealth, long hits) {
+            this.attackerHealth = attackerHealth;
+            this.defenderHealth = defenderHealth;
+            this.hits = hits;
+        }
+
+        /**
+         * Did the mob which hit first win?
+         *
+         * @return true if the attacker is still standing
+         */
+        public boolean attackerWins() {
+            return attackerHealth > 0;
+        }
+    }
+
+    /**
+     * Not instantiable
+     */
+    private Combat() {
+    }
+
+    /**
+     * Number of hits needed to bring health down to zero
+     *
+     * @param health health to remove (positive)
+     * @param damage damage per hit
+     * @return hits needed, or Long.MAX_VALUE if damage can't hurt
+     */
+    private static long hitsToFall(int health, int damage) {
+        if (damage <= 0) {
+            return Long.MAX_VALUE;
+        }
+        return (health + (long) damage - 1) / damage;
+    }
+
+    /**
+     * Work out a fight.
+     * A mob which can do no damage never makes the other fall over; if
+     * neither can do damage the fight ends at once with no change.
+     *
+     * @param attackerHealth health of the mob which hits first
+     * @param attackerDamage damage it does per hit
+     * @param defenderHealth health of the other mob
+     * @param defenderDamage damage it does per hit
+     * @return health of both mobs afterwards
+     */
+    public static Outcome resolve(int attackerHealth, int attackerDamage,
+                                  int defenderHealth, int defenderDamage) {
+        if (attackerHealth <= 0 || defenderHealth <= 0) {
+            return new Outcome(Math.max(attackerHealth, 0),
+                    Math.max(defenderHealth, 0), 0);
+        }
+        long defenderFalls = hitsToFall(defenderHealth, attackerDamage);
+        long attackerFalls = hitsToFall(attackerHealth, defenderDamage);
+        if (defenderFalls == Long.MAX_VALUE
+                && attackerFalls == Long.MAX_VALUE) {
+            return new Outcome(attackerHealth, defenderHealth, 0);
+        }
+        if (defenderFalls <= attackerFalls) {
+            // The defender falls on the attacker's hit number defenderFalls
+            long taken = (defenderFalls - 1) * defenderDamage;
+            return new Outcome((int) (attackerHealth - taken), 0,
+                    2 * defenderFalls - 1);
+        }
+        // The attacker falls after hitting attackerFalls times
+        long taken = attackerFalls * attackerDamage;
+        return new Outcome(0, (int) (defenderHealth - taken),
+                2 * attackerFalls);
+    }
+
+    /**
+     * Fight two mobs, as Mob.fight describes, and leave them with their
+     * health afterwards. Assumes takeDamage simply removes health.
+     *
+     * @param attacker mob which hits first
+     * @param defender the other mob
+     */
+    public static void fight(Mob attacker, Mob defender) {
+        if (!attacker.isAlive() || !defender.isAlive()) {
+            return;
+        }
+        Outcome outcome = resolve(attacker.getHealth(), attacker.getDamage(),
+                defender.getHealth(), defender.getDamage());
+        attacker.takeDamage(attacker.getHealth() - outcome.attackerHealth);
+        defender.takeDamage(defender.getHealth() - outcome.defenderHealth);
+    }
+}
@@ -0,0 +1,89 @@
+package utils;
+
+/**
+ * Cleaning and sharing of description strings.
+ * <p>
+ * Map files use ';' and line breaks as separators, so these are replaced
+ * by '*' in every description. Generated maps repeat the same few
+ * descriptions many times, so cleaned descriptions are looked up in a
+ * pool and an equal string already in the pool is used instead, letting
+ * the copies be garbage collected.
+ * <p>
+ * The pool is a fixed size table indexed by hash, with one string in each
+ * slot. A string whose slot is taken by a different string replaces it,
+ * so the pool never grows and never holds on to much, at the cost of
+ * sometimes missing a duplicate. It is safe to use from any thread
+ * without locking (a lost update just misses a duplicate).
+ */
+public final class Descriptions {
+    // Number of slots in the pool (a power of two)
+    private static final int POOL_SIZE = 1 << 16;
+    // The pool
+    private static final String[] POOL = new String[POOL_SIZE];
+
+    /**
+     * Not instantiable
+     */
+    private Descriptions() {
+    }
+
+    /**
+     * Replace each ';', '\n' and '\r' with '*' in one pass, and share the
+     * result through the pool
+     *
+     * @param description description to clean
+     * @return the cleaned description (description itself, or an equal
+     * pooled string, if there was nothing to replace)
+     * @throws NullPointerException if description is null
+     */
+    public static String sanitize(String description) {
+        int length = description.length();
+        int i = 0;
+        while (i < length && !isSeparator(description.charAt(i))) {
+            i++;
+        }
+        if (i == length) {
+            return canonical(description);
+        }
+        char[] chars = description.toCharArray();
+        for (; i < length; i++) {
+            if (isSeparator(chars[i])) {
+                chars[i] = '*';
+            }
+        }
+        return canonical(new String(chars));
+    }
+
+    /**
+     * Is c a character map files use as a separator?
+     *
+     * @param c character to check
+     * @return true for ';', '\n' and '\r'
+     */
+    private static boolean isSeparator(char c) {
+        return c == ';' || c == '\n' || c == '\r';
+    }
+
+    /**
+     * Share a string through the pool
+     *
+     * @param s string to share (may be null)
+     * @return an equal string from the pool, or s (which is then pooled)
+     */
+    public static String canonical(String s) {
+        if (s == null) {
+            return null;
+        }
+        int hash = s.hashCode();
+        int slot = (hash ^ (hash >>> 16)) & (POOL_SIZE - 1);
+        String pooled = POOL[slot];
+        if (pooled == s) {
+            return s;
+        }
+        if (pooled != null && pooled.hashCode() == hash && pooled.equals(s)) {
+            return pooled;
+        }
+        POOL[slot] = s;
+        return s;
+    }
+}
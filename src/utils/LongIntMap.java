@@ -0,0 +1,83 @@
+package utils;
+
+/**
+ * Hash map from long keys (such as packed Pairs) to int values which
+ * stores both unboxed (open addressing with linear probing)
+ */
+public class LongIntMap extends LongKeyTable {
+    // Value for each key, at the key's index
+    private int[] values;
+
+    /**
+     * Constructor
+     */
+    public LongIntMap() {
+        this(16);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param expectedSize number of keys to make room for
+     */
+    public LongIntMap(int expectedSize) {
+        super(expectedSize);
+        values = new int[valueSlots()];
+    }
+
+    /**
+     * Value for a key
+     *
+     * @param key     key to look up
+     * @param missing value to return if key is not present
+     * @return value for key or missing
+     */
+    public int get(long key, int missing) {
+        int i = indexOf(key);
+        return i >= 0 ? values[i] : missing;
+    }
+
+    /**
+     * Set the value for a key, replacing any existing value
+     *
+     * @param key   key to set
+     * @param value new value
+     */
+    public void put(long key, int value) {
+        // Added first, as adding may replace the values array
+        int i = add(key);
+        values[i] = value;
+    }
+
+    /**
+     * Set the value for a key only if it has none yet
+     *
+     * @param key   key to set
+     * @param value new value
+     * @return true if the value was set
+     */
+    public boolean putIfAbsent(long key, int value) {
+        if (containsKey(key)) {
+            return false;
+        }
+        put(key, value);
+        return true;
+    }
+
+    /**
+     * Move the values to a new array after the table grew
+     *
+     * @param moves new index of the value at each old index (-1 if there
+     *              is no value there)
+     */
+    @Override
+    void moveValues(int[] moves) {
+        int[] oldValues = values;
+        values = new int[valueSlots()];
+        for (int i = 0; i < moves.length; i++) {
+            if (moves[i] >= 0) {
+                values[moves[i]] = oldValues[i];
+            }
+        }
+    }
+}
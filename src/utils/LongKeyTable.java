@@ -0,0 +1,157 @@
+package utils;
+
+import java.util.Arrays;
+
+/**
+ * Keys of a hash map from long keys (such as packed Pairs), kept unboxed
+ * (open addressing with linear probing). Subclasses keep the values in an
+ * array of valueSlots() entries, at the index given for each key.
+ * <p>
+ * The key 0 marks an empty slot, so it is kept apart from the table, and
+ * its value goes in the last value slot.
+ */
+abstract class LongKeyTable {
+    // Largest fraction of slots in use before the table grows
+    private static final double LOAD_FACTOR = 0.5;
+
+    // Keys in each slot (0 marks an empty slot)
+    private long[] keys;
+    // Number of slots in use
+    private int used;
+    // Whether the key 0 (which can't go in the table) is present
+    private boolean hasZeroKey;
+
+    /**
+     * Constructor
+     *
+     * @param expectedSize number of keys to make room for
+     */
+    LongKeyTable(int expectedSize) {
+        int capacity = 16;
+        while (capacity * LOAD_FACTOR < expectedSize) {
+            capacity <<= 1;
+        }
+        keys = new long[capacity];
+    }
+
+    /**
+     * Number of value slots subclasses need (one per table slot, plus one
+     * for the key 0)
+     *
+     * @return value array length
+     */
+    final int valueSlots() {
+        return keys.length + 1;
+    }
+
+    /**
+     * Find the slot holding key, or the empty slot where it would go
+     *
+     * @param key non-zero key
+     * @return slot index
+     */
+    private int slot(long key) {
+        int mask = keys.length - 1;
+        int i = Pair.hash(key) & mask;
+        while (keys[i] != 0 && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * Where the value for a key is
+     *
+     * @param key key to look up
+     * @return value index or -1 if key is not present
+     */
+    final int indexOf(long key) {
+        if (key == 0) {
+            return hasZeroKey ? keys.length : -1;
+        }
+        int i = slot(key);
+        return keys[i] != 0 ? i : -1;
+    }
+
+    /**
+     * Where the value for a key goes, adding the key if it is not present
+     * (which may grow the table, so earlier indexes are no longer valid)
+     *
+     * @param key key to add
+     * @return value index
+     */
+    final int add(long key) {
+        if (key == 0) {
+            hasZeroKey = true;
+            return keys.length;
+        }
+        int i = slot(key);
+        if (keys[i] == 0) {
+            if (used + 1 > keys.length * LOAD_FACTOR) {
+                grow();
+                i = slot(key);
+            }
+            keys[i] = key;
+            used++;
+        }
+        return i;
+    }
+
+    /**
+     * Double the table size and re-insert every key
+     */
+    private void grow() {
+        long[] oldKeys = keys;
+        keys = new long[oldKeys.length * 2];
+        // New value index of each old one (-1 if the slot was empty)
+        int[] moves = new int[oldKeys.length + 1];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int j = slot(oldKeys[i]);
+                keys[j] = oldKeys[i];
+                moves[i] = j;
+            } else {
+                moves[i] = -1;
+            }
+        }
+        moves[oldKeys.length] = keys.length;
+        moveValues(moves);
+    }
+
+    /**
+     * Replace the value array with one of valueSlots() entries, moving
+     * each value to its new index
+     *
+     * @param moves new index of the value at each old index (-1 if there
+     *              is no value there)
+     */
+    abstract void moveValues(int[] moves);
+
+    /**
+     * Number of keys in the map
+     *
+     * @return key count
+     */
+    public int size() {
+        return used + (hasZeroKey ? 1 : 0);
+    }
+
+    /**
+     * Is there a value for key?
+     *
+     * @param key key to look up
+     * @return true if key is present
+     */
+    public boolean containsKey(long key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * Remove all keys (keeping the table size)
+     */
+    public void clear() {
+        Arrays.fill(keys, 0);
+        used = 0;
+        hasZeroKey = false;
+    }
+}
@@ -0,0 +1,93 @@
+package utils;
+
+import java.util.Arrays;
+import java.util.function.LongFunction;
+
+/**
+ * Hash map from long keys (such as packed Pairs) to objects which keeps
+ * the keys unboxed (the same table as LongIntMap)
+ *
+ * @param <V> type of the values
+ */
+public class LongMap<V> extends LongKeyTable {
+    // Value for each key, at the key's index
+    private Object[] values;
+
+    /**
+     * Constructor
+     */
+    public LongMap() {
+        super(16);
+        values = new Object[valueSlots()];
+    }
+
+    /**
+     * Value for a key
+     *
+     * @param key key to look up
+     * @return value or null if key is not present
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int i = indexOf(key);
+        return i >= 0 ? (V) values[i] : null;
+    }
+
+    /**
+     * Set the value for a key, replacing any existing value
+     *
+     * @param key   key to set
+     * @param value new value
+     * @throws NullPointerException if value is null
+     */
+    public void put(long key, V value) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        // Added first, as adding may replace the values array
+        int i = add(key);
+        values[i] = value;
+    }
+
+    /**
+     * Get the value for a key, creating it if the key is not present
+     *
+     * @param key     key to look up
+     * @param factory creates a (non-null) value for key if needed
+     * @return value for key
+     */
+    public V computeIfAbsent(long key, LongFunction<V> factory) {
+        V value = get(key);
+        if (value == null) {
+            value = factory.apply(key);
+            put(key, value);
+        }
+        return value;
+    }
+
+    /**
+     * Move the values to a new array after the table grew
+     *
+     * @param moves new index of the value at each old index (-1 if there
+     *              is no value there)
+     */
+    @Override
+    void moveValues(int[] moves) {
+        Object[] oldValues = values;
+        values = new Object[valueSlots()];
+        for (int i = 0; i < moves.length; i++) {
+            if (moves[i] >= 0) {
+                values[moves[i]] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Remove all keys (keeping the table size) and let go of the values
+     */
+    @Override
+    public void clear() {
+        super.clear();
+        Arrays.fill(values, null);
+    }
+}
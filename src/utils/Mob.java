@@ -19,6 +19,13 @@ public interface Mob {
      */
     int getDamage();
 
+    /**
+     * How much health does this mob have left?
+     *
+     * @return current health (0 once the mob falls over)
+     */
+    int getHealth();
+
     /**
      * Is this mob alive?
      * 
@@ -1,14 +1,16 @@
 package utils;
 
 /**
- * Helper class to store a two ints
+ * Helper class to store a two ints (immutable)
+ * A Pair can also be packed into a single long, for use as a key in
+ * LongIntMap or LongMap without creating objects.
  */
-public class Pair {
+public final class Pair {
 
     // The first integer x
-    public int x;
+    public final int x;
     // The second integer y
-    public int y;
+    public final int y;
 
     /**
      * Constructor
@@ -21,6 +23,73 @@ public class Pair {
         this.y = y;
     }
 
+    /**
+     * Pack two ints into a long
+     *
+     * @param x The first integer x
+     * @param y The second integer y
+     * @return x in the high 32 bits, y in the low 32 bits
+     */
+    public static long pack(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    /**
+     * First integer of a packed pair
+     *
+     * @param packed value from pack()
+     * @return x
+     */
+    public static int unpackX(long packed) {
+        return (int) (packed >> 32);
+    }
+
+    /**
+     * Second integer of a packed pair
+     *
+     * @param packed value from pack()
+     * @return y
+     */
+    public static int unpackY(long packed) {
+        return (int) packed;
+    }
+
+    /**
+     * Create a Pair from its packed form
+     *
+     * @param packed value from pack()
+     * @return the Pair
+     */
+    public static Pair unpack(long packed) {
+        return new Pair(unpackX(packed), unpackY(packed));
+    }
+
+    /**
+     * This pair packed into a long
+     *
+     * @return x in the high 32 bits, y in the low 32 bits
+     */
+    public long pack() {
+        return pack(x, y);
+    }
+
+    /**
+     * Well distributed hash of a long, such as a packed pair.
+     * Keys which differ in only a few bits (e.g. neighbouring coordinates)
+     * get unrelated hashes. (The finalisation step of MurmurHash3)
+     *
+     * @param key the value to hash
+     * @return hash of key
+     */
+    public static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
     /**
      * Check whether two pairs are equal
      * Pairs p equals q iff p.x equal q.x and p.y equal q.y
@@ -42,7 +111,16 @@ public class Pair {
      */
     @Override
     public int hashCode() {
-        // Multiply with prime numbers to make the hashCode more unique.
-        return ((x * 3 + y) * 5);
+        return hash(pack());
+    }
+
+    /**
+     * String form of the pair
+     *
+     * @return "(x,y)"
+     */
+    @Override
+    public String toString() {
+        return "(" + x + "," + y + ")";
     }
 }
@@ -0,0 +1,21 @@
+package utils;
+
+/**
+ * Told how far a long piece of work (such as saving or loading a map) has
+ * got, and asked whether it should carry on.
+ */
+public interface Progress {
+    /**
+     * Ignores progress and never cancels
+     */
+    Progress NONE = (done, total) -> true;
+
+    /**
+     * Report progress
+     *
+     * @param done  amount of work done so far
+     * @param total amount of work in all
+     * @return false if the work should stop (it was cancelled)
+     */
+    boolean update(long done, long total);
+}
@@ -0,0 +1,77 @@
+package utils;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Helper routines to read and write variable length ints
+ * (7 bits per byte, low bits first)
+ */
+public final class Varint {
+
+    /**
+     * Not instantiable
+     */
+    private Varint() {
+    }
+
+    /**
+     * Write a non-negative int using as few bytes as possible
+     *
+     * @param out   Output to write to
+     * @param value Value to write (treated as unsigned)
+     * @throws IOException if out fails
+     */
+    public static void write(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * Write an int which may be negative (zig-zag encoded)
+     *
+     * @param out   Output to write to
+     * @param value Value to write
+     * @throws IOException if out fails
+     */
+    public static void writeSigned(DataOutput out, int value)
+            throws IOException {
+        write(out, (value << 1) ^ (value >> 31));
+    }
+
+    /**
+     * Read a value written by write()
+     *
+     * @param in Buffer to read from
+     * @return decoded value
+     * @throws BufferUnderflowException if in runs out
+     * @throws IllegalArgumentException if the value is longer than 5 bytes
+     */
+    public static int read(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    /**
+     * Read a value written by writeSigned()
+     *
+     * @param in Buffer to read from
+     * @return decoded value
+     */
+    public static int readSigned(ByteBuffer in) {
+        int value = read(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,117 @@
+package map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import things.Explorer;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Saving and loading maps in the binary (CRWB) format
+ */
+class BinaryMapFormatTest {
+    // Directory for the map files
+    @TempDir
+    Path directory;
+
+    /**
+     * Random maps load back (read in full or memory mapped) with the same
+     * rooms, exits, contents and explorer
+     */
+    @Test
+    void randomMapsRoundTrip() throws Exception {
+        for (long seed = 0; seed < 20; seed++) {
+            Random random = new Random(seed);
+            Room start = TestMaps.randomMap(random, 1 + random.nextInt(12),
+                    1 + random.nextInt(12));
+            String expected = TestMaps.dump(start);
+            String filename = directory.resolve(seed + ".bmap").toString();
+            assertTrue(MapIO.saveBinaryMap(start, filename));
+
+            Object[] loaded = MapIO.loadBinaryMap(filename);
+            assertNotNull(loaded, "seed " + seed);
+            assertEquals(expected, TestMaps.dump((Room) loaded[1]),
+                    "seed " + seed);
+            assertEquals("E;20;Tester;someone testing",
+                    ((Explorer) loaded[0]).repr());
+
+            Object[] mapped = MapIO.loadMappedMap(filename);
+            assertNotNull(mapped, "seed " + seed);
+            assertEquals(expected, TestMaps.dump((Room) mapped[1]),
+                    "seed " + seed);
+            assertEquals("E;20;Tester;someone testing",
+                    ((Explorer) mapped[0]).repr());
+        }
+    }
+
+    /**
+     * Saving a loaded map writes the same bytes again
+     */
+    @Test
+    void savingALoadedMapIsStable() throws Exception {
+        Room start = TestMaps.randomMap(new Random(7), 9, 9);
+        String first = directory.resolve("first.bmap").toString();
+        String second = directory.resolve("second.bmap").toString();
+        assertTrue(MapIO.saveBinaryMap(start, first));
+        Object[] loaded = MapIO.loadBinaryMap(first);
+        assertNotNull(loaded);
+        // Loading takes the explorer out of its room, so put it back
+        ((Room) loaded[1]).enter((Explorer) loaded[0]);
+        assertTrue(MapIO.saveBinaryMap((Room) loaded[1], second));
+        assertArrayEquals(Files.readAllBytes(Path.of(first)),
+                Files.readAllBytes(Path.of(second)));
+    }
+
+    /**
+     * Files start with the magic bytes and version
+     */
+    @Test
+    void fileStartsWithMagic() throws Exception {
+        String filename = directory.resolve("magic.bmap").toString();
+        assertTrue(MapIO.saveBinaryMap(new Room("alone"), filename));
+        byte[] bytes = Files.readAllBytes(Path.of(filename));
+        assertArrayEquals(BinaryMapFormat.MAGIC, Arrays.copyOf(bytes, 4));
+        assertEquals(BinaryMapFormat.VERSION, bytes[4]);
+    }
+
+    /**
+     * Damaged files fail to load rather than throwing
+     */
+    @Test
+    void damagedFilesDoNotLoad() throws Exception {
+        Room start = TestMaps.randomMap(new Random(3), 6, 6);
+        String filename = directory.resolve("good.bmap").toString();
+        assertTrue(MapIO.saveBinaryMap(start, filename));
+        byte[] bytes = Files.readAllBytes(Path.of(filename));
+
+        Path damaged = directory.resolve("damaged.bmap");
+        byte[] badMagic = bytes.clone();
+        badMagic[0] = 'X';
+        Files.write(damaged, badMagic);
+        assertNull(MapIO.loadBinaryMap(damaged.toString()));
+        assertNull(MapIO.loadMappedMap(damaged.toString()));
+
+        byte[] badVersion = bytes.clone();
+        badVersion[4] = (byte) (BinaryMapFormat.VERSION + 1);
+        Files.write(damaged, badVersion);
+        assertNull(MapIO.loadBinaryMap(damaged.toString()));
+
+        for (int length : new int[]{0, 3, 5, bytes.length / 2,
+                bytes.length - BinaryMapFormat.TRAILER_SIZE}) {
+            Files.write(damaged, Arrays.copyOf(bytes, length));
+            assertNull(MapIO.loadBinaryMap(damaged.toString()),
+                    "length " + length);
+        }
+        assertNull(MapIO.loadBinaryMap(
+                directory.resolve("missing.bmap").toString()));
+    }
+}
@@ -0,0 +1,269 @@
+package map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Saving maps to a journal, and replaying it when it is opened
+ */
+class MapJournalTest {
+    // Directory for the journals
+    @TempDir
+    Path directory;
+
+    /**
+     * Make some random changes to a map and save them
+     *
+     * @param random  source of the changes
+     * @param journal journal of the map
+     * @param changes number of changes to make
+     * @throws Exception if an exit can not be made (never)
+     */
+    private static void changeAndSave(Random random, MapJournal journal,
+                                      int changes) throws Exception {
+        for (int i = 0; i < changes; i++) {
+            TestMaps.randomChange(random, journal.getStart());
+        }
+        assertTrue(journal.save());
+        assertEquals(0, journal.countChanged());
+    }
+
+    /**
+     * Open a journal, failing if it can not be read
+     *
+     * @param filename journal to open
+     * @return the journal
+     */
+    private static MapJournal open(String filename) {
+        MapJournal journal = MapJournal.open(filename);
+        assertNotNull(journal, filename);
+        return journal;
+    }
+
+    /**
+     * Opening a journal replays every save, and saves to a reopened
+     * journal are replayed too
+     */
+    @Test
+    void savesAreReplayed() throws Exception {
+        for (long seed = 0; seed < 10; seed++) {
+            Random random = new Random(seed);
+            Room start = TestMaps.randomMap(random, 8, 8);
+            String filename = directory.resolve(seed + MapJournal.EXTENSION)
+                    .toString();
+            MapJournal journal = MapJournal.create(start, filename);
+            assertNotNull(journal);
+            for (int round = 0; round < 3; round++) {
+                for (int save = 0; save < 4; save++) {
+                    changeAndSave(random, journal, 1 + random.nextInt(5));
+                }
+                String expected = TestMaps.dump(journal.getStart());
+                journal.close();
+                journal = open(filename);
+                assertEquals(expected, TestMaps.dump(journal.getStart()),
+                        "seed " + seed + " round " + round);
+                assertEquals("E;20;Tester;someone testing",
+                        journal.getPlayer().repr());
+                // Opening takes the explorer out of its room, so put it back
+                journal.getStart().enter(journal.getPlayer());
+            }
+            journal.close();
+        }
+    }
+
+    /**
+     * Changes made after the last save are not in the file
+     */
+    @Test
+    void unsavedChangesAreLost() throws Exception {
+        Random random = new Random(1);
+        Room start = TestMaps.randomMap(random, 5, 5);
+        String filename = directory.resolve("lost.journal").toString();
+        MapJournal journal = MapJournal.create(start, filename);
+        assertNotNull(journal);
+        changeAndSave(random, journal, 3);
+        String expected = TestMaps.dump(start);
+        start.setDescription("not saved");
+        assertEquals(1, journal.countChanged());
+        journal.close();
+        assertEquals(expected, TestMaps.dump(open(filename).getStart()));
+    }
+
+    /**
+     * A batch which was not completely written is dropped (and cut from
+     * the file) when the journal is opened, and later saves still replay
+     */
+    @Test
+    void tornTailIsTruncated() throws Exception {
+        Random random = new Random(2);
+        Room start = TestMaps.randomMap(random, 10, 10);
+        String filename = directory.resolve("torn.journal").toString();
+        Path path = Path.of(filename);
+        MapJournal journal = MapJournal.create(start, filename);
+        assertNotNull(journal);
+        changeAndSave(random, journal, 3);
+        String first = TestMaps.dump(start);
+        long firstSize = Files.size(path);
+        changeAndSave(random, journal, 3);
+        String second = TestMaps.dump(start);
+        journal.close();
+        byte[] bytes = Files.readAllBytes(path);
+        // The second save was added to the log, not compacted
+        assertTrue(bytes.length > firstSize);
+
+        for (int cut = 1; cut < bytes.length - firstSize; cut++) {
+            Files.write(path, Arrays.copyOf(bytes, bytes.length - cut));
+            journal = open(filename);
+            assertEquals(first, TestMaps.dump(journal.getStart()),
+                    "cut " + cut);
+            journal.close();
+            assertEquals(firstSize, Files.size(path), "cut " + cut);
+        }
+
+        journal = open(filename);
+        changeAndSave(random, journal, 3);
+        String third = TestMaps.dump(journal.getStart());
+        journal.close();
+        journal = open(filename);
+        assertEquals(third, TestMaps.dump(journal.getStart()));
+        journal.close();
+
+        // Junk after the last batch is cut off too
+        byte[] junk = Arrays.copyOf(bytes, bytes.length + 7);
+        Arrays.fill(junk, bytes.length, junk.length, (byte) 0x55);
+        Files.write(path, junk);
+        journal = open(filename);
+        assertEquals(second, TestMaps.dump(journal.getStart()));
+        journal.close();
+        assertEquals(bytes.length, Files.size(path));
+    }
+
+    /**
+     * A batch whose CRC does not match is ignored
+     */
+    @Test
+    void badChecksumIsIgnored() throws Exception {
+        Random random = new Random(3);
+        Room start = TestMaps.randomMap(random, 10, 10);
+        String filename = directory.resolve("crc.journal").toString();
+        Path path = Path.of(filename);
+        MapJournal journal = MapJournal.create(start, filename);
+        assertNotNull(journal);
+        changeAndSave(random, journal, 3);
+        String first = TestMaps.dump(start);
+        long firstSize = Files.size(path);
+        changeAndSave(random, journal, 3);
+        journal.close();
+
+        RandomAccessFile file = new RandomAccessFile(filename, "rw");
+        try {
+            file.seek(file.length() - 1);
+            int last = file.read();
+            file.seek(file.length() - 1);
+            file.write(last ^ 1);
+        } finally {
+            file.close();
+        }
+        journal = open(filename);
+        assertEquals(first, TestMaps.dump(journal.getStart()));
+        journal.close();
+        assertEquals(firstSize, Files.size(path));
+    }
+
+    /**
+     * Once the log outgrows the snapshot the file is rewritten, and
+     * still replays to the live map
+     */
+    @Test
+    void compactedJournalIsReplayed() throws Exception {
+        Random random = new Random(4);
+        Room start = TestMaps.randomMap(random, 4, 4);
+        String filename = directory.resolve("compact.journal").toString();
+        Path path = Path.of(filename);
+        MapJournal journal = MapJournal.create(start, filename);
+        assertNotNull(journal);
+        int compactions = 0;
+        long size = Files.size(path);
+        for (int save = 0; save < 200; save++) {
+            changeAndSave(random, journal, 1 + random.nextInt(4));
+            long newSize = Files.size(path);
+            if (newSize < size) {
+                compactions++;
+            }
+            size = newSize;
+        }
+        assertTrue(compactions > 0);
+        journal.close();
+        assertEquals(TestMaps.dump(start),
+                TestMaps.dump(open(filename).getStart()));
+    }
+
+    /**
+     * A prepared journal writes nothing until its first save, which
+     * writes the whole map
+     */
+    @Test
+    void preparedJournalWritesOnFirstSave() throws Exception {
+        Random random = new Random(5);
+        Room start = TestMaps.randomMap(random, 5, 5);
+        Path path = directory.resolve("prepared.journal");
+        MapJournal journal = MapJournal.prepare(start, path.toString());
+        assertFalse(Files.exists(path));
+        assertTrue(journal.save());
+        assertTrue(Files.exists(path));
+        changeAndSave(random, journal, 3);
+        String expected = TestMaps.dump(start);
+        journal.close();
+        assertEquals(expected, TestMaps.dump(open(path.toString())
+                .getStart()));
+    }
+
+    /**
+     * Closing a journal stops it saving, and leaves alone rooms a newer
+     * journal of the same map listens to
+     */
+    @Test
+    void closedJournalsDoNotSave() throws Exception {
+        Random random = new Random(6);
+        Room start = TestMaps.randomMap(random, 5, 5);
+        String oldFile = directory.resolve("old.journal").toString();
+        String newFile = directory.resolve("new.journal").toString();
+        MapJournal old = MapJournal.create(start, oldFile);
+        assertNotNull(old);
+        MapJournal journal = MapJournal.create(start, newFile);
+        assertNotNull(journal);
+        old.close();
+        start.setDescription("changed");
+        assertFalse(old.save());
+        assertEquals(1, journal.countChanged());
+        changeAndSave(random, journal, 3);
+        String expected = TestMaps.dump(start);
+        journal.close();
+        assertFalse(journal.save());
+        assertEquals(expected, TestMaps.dump(open(newFile).getStart()));
+    }
+
+    /**
+     * Files which are not journals do not open
+     */
+    @Test
+    void badFilesDoNotOpen() throws Exception {
+        Path path = directory.resolve("bad.journal");
+        Files.write(path, new byte[]{'C', 'R', 'W', 'B', 1});
+        assertNull(MapJournal.open(path.toString()));
+        assertNull(MapJournal.open(
+                directory.resolve("missing.journal").toString()));
+    }
+}
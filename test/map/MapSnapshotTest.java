@@ -0,0 +1,143 @@
+package map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import utils.Progress;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Saving a map as it was when a snapshot was made
+ */
+class MapSnapshotTest {
+    // Directory for the map files
+    @TempDir
+    Path directory;
+
+    /**
+     * Load a saved map
+     *
+     * @param filename map file
+     * @return its start room
+     */
+    private static Room load(String filename) {
+        Object[] loaded = MapIO.loadMap(filename);
+        assertNotNull(loaded, filename);
+        return (Room) loaded[1];
+    }
+
+    /**
+     * Changes made to any room once the save has begun, however they are
+     * made, are not saved. Changes to another map do not matter.
+     */
+    @Test
+    void laterChangesAreNotSaved() throws Exception {
+        for (long seed = 0; seed < 10; seed++) {
+            Random random = new Random(seed);
+            Room start = TestMaps.randomMap(random, 8, 8);
+            Room other = TestMaps.randomMap(random, 4, 4);
+            String expected = TestMaps.dump(start);
+            String otherExpected = TestMaps.dump(other);
+            MapSnapshot snapshot = new MapSnapshot(start);
+            String filename = directory.resolve(seed + ".map").toString();
+            AtomicBoolean changed = new AtomicBoolean();
+            assertTrue(snapshot.save(filename, (done, total) -> {
+                // Told first once the save has begun
+                if (!changed.getAndSet(true)) {
+                    try {
+                        for (int i = 0; i < 50; i++) {
+                            TestMaps.randomChange(random, start);
+                            TestMaps.randomChange(random, other);
+                        }
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+                return true;
+            }));
+            assertTrue(snapshot.isComplete());
+            assertEquals(expected, TestMaps.dump(load(filename)),
+                    "seed " + seed);
+            assertFalse(otherExpected.equals(TestMaps.dump(other)));
+        }
+    }
+
+    /**
+     * A snapshot is of the map when its save begins, not when it was made
+     */
+    @Test
+    void snapshotIsTakenWhenSaveBegins() throws Exception {
+        Room start = TestMaps.randomMap(new Random(9), 3, 3);
+        MapSnapshot snapshot = new MapSnapshot(start);
+        start.setDescription("changed before saving");
+        String filename = directory.resolve("begins.map").toString();
+        assertTrue(snapshot.save(filename, Progress.NONE));
+        assertEquals("changed before saving",
+                load(filename).getDescription());
+    }
+
+    /**
+     * Changes made by another thread while the snapshot is saved are not
+     * saved
+     */
+    @Test
+    void changesDuringSaveAreNotSaved() throws Exception {
+        Random random = new Random(11);
+        Room start = TestMaps.randomMap(random, 40, 40);
+        String expected = TestMaps.dump(start);
+        MapSnapshot snapshot = new MapSnapshot(start);
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread changer = new Thread(() -> {
+            try {
+                Random changes = new Random(12);
+                while (!done.get()) {
+                    TestMaps.randomChange(changes, start);
+                }
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            }
+        });
+        String filename = directory.resolve("busy.map").toString();
+        try {
+            // Started once the save has begun
+            assertTrue(snapshot.save(filename, (step, total) -> {
+                if (changer.getState() == Thread.State.NEW) {
+                    changer.start();
+                }
+                return true;
+            }));
+        } finally {
+            done.set(true);
+            changer.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertEquals(expected, TestMaps.dump(load(filename)));
+    }
+
+    /**
+     * A cancelled save writes nothing, and the snapshot stops copying
+     * rooms
+     */
+    @Test
+    void cancelledSave() throws Exception {
+        Room start = TestMaps.randomMap(new Random(13), 4, 4);
+        MapSnapshot snapshot = new MapSnapshot(start);
+        Path path = directory.resolve("cancelled.map");
+        assertFalse(snapshot.save(path.toString(), (done, total) -> false));
+        assertTrue(snapshot.isComplete());
+        assertFalse(Files.exists(path));
+        assertFalse(Files.exists(directory.resolve("cancelled.map.tmp")));
+    }
+}
@@ -0,0 +1,168 @@
+package map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import things.Treasure;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Rooms of a memory mapped map, which are read from the file when first
+ * used
+ */
+class MappedRoomTest {
+    // Exits out of the hub room
+    private static final int HUB_EXITS = 600;
+    // Things in the hub room
+    private static final int HUB_THINGS = 200;
+    // Threads using the hub at once
+    private static final int THREADS = 8;
+
+    // Directory for the map files
+    @TempDir
+    Path directory;
+
+    /**
+     * Save a map whose start room leads to a hub with many exits and
+     * things, so that loading the hub takes a while
+     *
+     * @return the map file
+     * @throws Exception if an exit can not be made (never)
+     */
+    private String saveHubMap() throws Exception {
+        Room start = new Room("start");
+        Room hub = new Room("hub");
+        start.addExit("Down", hub);
+        hub.addExit("Up", start);
+        for (int i = 1; i < HUB_EXITS; i++) {
+            hub.addExit("Door_" + i, new Room("room " + i));
+        }
+        for (int i = 0; i < HUB_THINGS; i++) {
+            hub.enter(new Treasure("coin " + i, i));
+        }
+        String filename = directory.resolve("hub.bmap").toString();
+        assertTrue(MapIO.saveBinaryMap(start, filename));
+        return filename;
+    }
+
+    /**
+     * Threads using a room at the same time as it is first loaded all
+     * see the whole room, never part of it
+     */
+    @Test
+    void noThreadSeesAPartLoadedRoom() throws Exception {
+        String filename = saveHubMap();
+        for (int round = 0; round < 100; round++) {
+            Object[] loaded = MapIO.loadMappedMap(filename);
+            assertNotNull(loaded);
+            Room hub = ((Room) loaded[1]).getExit("Down");
+            CountDownLatch start = new CountDownLatch(1);
+            AtomicInteger partial = new AtomicInteger();
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            Thread[] threads = new Thread[THREADS];
+            for (int t = 0; t < THREADS; t++) {
+                boolean exitsFirst = t % 2 == 0;
+                threads[t] = new Thread(() -> {
+                    try {
+                        start.await();
+                        int exits;
+                        int things;
+                        if (exitsFirst) {
+                            exits = hub.getExits().size();
+                            things = hub.getContents().size();
+                        } else {
+                            things = hub.getContents().size();
+                            exits = hub.getExits().size();
+                        }
+                        if (exits != HUB_EXITS || things != HUB_THINGS) {
+                            partial.incrementAndGet();
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                });
+                threads[t].start();
+            }
+            start.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            if (failure.get() != null) {
+                throw new AssertionError(failure.get());
+            }
+            assertEquals(0, partial.get(), "round " + round);
+        }
+    }
+
+    /**
+     * Changes made to a room before it is loaded are kept along with
+     * what is loaded
+     */
+    @Test
+    void changesBeforeLoadingAreKept() throws Exception {
+        Object[] loaded = MapIO.loadMappedMap(saveHubMap());
+        assertNotNull(loaded);
+        Room hub = ((Room) loaded[1]).getExit("Down");
+        Room extra = new Room("extra");
+        hub.addExit("Door_" + HUB_EXITS, extra);
+        assertEquals(HUB_EXITS + 1, hub.getExits().size());
+        assertEquals(HUB_THINGS, hub.getContents().size());
+        assertEquals("hub", hub.getDescription());
+    }
+
+    /**
+     * Loading a room does not count as changing its exits
+     */
+    @Test
+    void loadingLeavesExitVersionAlone() throws Exception {
+        Object[] loaded = MapIO.loadMappedMap(saveHubMap());
+        assertNotNull(loaded);
+        Room hub = ((Room) loaded[1]).getExit("Down");
+        long version = Room.getExitVersion();
+        assertEquals(HUB_EXITS, hub.getExits().size());
+        assertEquals(version, Room.getExitVersion());
+        assertEquals(0, hub.getExitStamp());
+    }
+
+    /**
+     * A room which fails to load fails every time it is used, rather than
+     * being left part loaded
+     */
+    @Test
+    void failedLoadsFailEveryTime() throws Exception {
+        Room start = new Room("start");
+        Room broken = new Room("broken");
+        start.addExit("Down", broken);
+        broken.addExit("Door_1", new Room("one"));
+        broken.addExit("Door_2", new Room("two"));
+        broken.enter(new Treasure("coin", 1));
+        Path path = directory.resolve("broken.bmap");
+        assertTrue(MapIO.saveBinaryMap(start, path.toString()));
+        // Give both exits the same label, so loading the room fails
+        String bytes = new String(Files.readAllBytes(path),
+                StandardCharsets.ISO_8859_1);
+        assertEquals(bytes.indexOf("Door_2"), bytes.lastIndexOf("Door_2"));
+        Files.write(path, bytes.replace("Door_2", "Door_1")
+                .getBytes(StandardCharsets.ISO_8859_1));
+
+        Object[] loaded = MapIO.loadMappedMap(path.toString());
+        assertNotNull(loaded);
+        Room room = ((Room) loaded[1]).getExit("Down");
+        for (int i = 0; i < 3; i++) {
+            assertThrows(IllegalStateException.class, room::getExits);
+            assertThrows(IllegalStateException.class, room::getContents);
+            assertThrows(IllegalStateException.class,
+                    () -> room.getExit("Door_1"));
+        }
+    }
+}
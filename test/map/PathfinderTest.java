@@ -0,0 +1,167 @@
+package map;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Routes found by a Pathfinder
+ */
+class PathfinderTest {
+    /**
+     * Check a route is a shortest one
+     *
+     * @param route    route to check (null if none was found)
+     * @param from     start room
+     * @param to       end room
+     * @param distance exits on a shortest route (-1 if there is none)
+     * @param message  shown if the check fails
+     */
+    private static void assertShortest(List<Room> route, Room from, Room to,
+                                       int distance, String message) {
+        if (distance < 0) {
+            assertNull(route, message);
+            return;
+        }
+        assertNotNull(route, message);
+        assertEquals(distance, route.size() - 1, message);
+        assertSame(from, route.get(0), message);
+        assertSame(to, route.get(route.size() - 1), message);
+        for (int i = 1; i < route.size(); i++) {
+            assertTrue(route.get(i - 1).getExits().containsValue(route.get(i)),
+                    message);
+        }
+    }
+
+    /**
+     * Every strategy finds a shortest route, with or without the cache
+     */
+    @Test
+    void routesAreShortest() throws Exception {
+        for (long seed = 0; seed < 10; seed++) {
+            Random random = new Random(seed);
+            Room start = TestMaps.randomMap(random, 2 + random.nextInt(10),
+                    2 + random.nextInt(10));
+            // Some exits removed so that not every room can reach every other
+            for (int i = 0; i < 5; i++) {
+                List<Room> rooms = TestMaps.rooms(start);
+                Room room = rooms.get(random.nextInt(rooms.size()));
+                for (String label : room.getExits().keySet()) {
+                    if (random.nextBoolean()) {
+                        room.removeExit(label);
+                    }
+                }
+            }
+            MapGraph graph = new MapGraph(start);
+            Pathfinder cached = new Pathfinder(start);
+            Pathfinder uncached = new Pathfinder(start, 0);
+            for (int from = 0; from < graph.size(); from++) {
+                int[] distances = graph.distances(from);
+                for (int to = 0; to < graph.size(); to++) {
+                    Room fromRoom = graph.getRoom(from);
+                    Room toRoom = graph.getRoom(to);
+                    for (Pathfinder.Strategy strategy
+                            : Pathfinder.Strategy.values()) {
+                        String message = "seed " + seed + " " + from + " to "
+                                + to + " " + strategy;
+                        assertShortest(cached.route(fromRoom, toRoom,
+                                strategy), fromRoom, toRoom, distances[to],
+                                message);
+                        assertShortest(uncached.route(fromRoom, toRoom,
+                                strategy), fromRoom, toRoom, distances[to],
+                                message);
+                    }
+                    assertEquals(distances[to],
+                            cached.distance(fromRoom, toRoom));
+                }
+            }
+        }
+    }
+
+    /**
+     * Following the directions leads to the end room
+     */
+    @Test
+    void directionsLeadToTheEnd() throws Exception {
+        Room start = TestMaps.randomMap(new Random(5), 8, 8);
+        List<Room> rooms = TestMaps.rooms(start);
+        Pathfinder pathfinder = new Pathfinder(start);
+        for (Room to : rooms) {
+            List<String> directions = pathfinder.directions(start, to);
+            assertNotNull(directions);
+            assertEquals(pathfinder.distance(start, to), directions.size());
+            Room room = start;
+            for (String direction : directions) {
+                room = room.getExit(direction);
+            }
+            assertSame(to, room);
+        }
+        assertTrue(pathfinder.directions(start, start).isEmpty());
+    }
+
+    /**
+     * Changing exits changes the routes found, even ones cached before
+     */
+    @Test
+    void exitChangesRefreshRoutes() throws Exception {
+        Room[] line = new Room[10];
+        for (int i = 0; i < line.length; i++) {
+            line[i] = new Room("room " + i);
+            if (i > 0) {
+                Room.makeExitPair(line[i - 1], line[i], "East", "West");
+            }
+        }
+        Pathfinder pathfinder = new Pathfinder(line[0]);
+        assertEquals(9, pathfinder.distance(line[0], line[9]));
+
+        line[0].addExit("Portal_7", line[9]);
+        assertEquals(1, pathfinder.distance(line[0], line[9]));
+
+        line[0].removeExit("Portal_7");
+        line[4].removeExit("East");
+        assertEquals(-1, pathfinder.distance(line[0], line[9]));
+        assertNull(pathfinder.route(line[0], line[9]));
+        assertEquals(4, pathfinder.distance(line[4], line[0]));
+        // Room 9 can still reach room 4, but is no longer reachable
+        // from the root, so has no routes
+        assertEquals(-1, pathfinder.distance(line[9], line[4]));
+
+        // Rooms which can not be reached from the root have no routes
+        Room elsewhere = new Room("elsewhere");
+        assertNull(pathfinder.route(line[0], elsewhere));
+        assertNull(pathfinder.route(elsewhere, elsewhere));
+    }
+
+    /**
+     * Exit changes to another map do not hide later changes to the
+     * indexed rooms
+     */
+    @Test
+    void otherMapsDoNotHideChanges() throws Exception {
+        Room[] line = new Room[5];
+        for (int i = 0; i < line.length; i++) {
+            line[i] = new Room("room " + i);
+            if (i > 0) {
+                Room.makeExitPair(line[i - 1], line[i], "East", "West");
+            }
+        }
+        Room other = new Room("other");
+        Pathfinder pathfinder = new Pathfinder(line[0]);
+        assertEquals(4, pathfinder.distance(line[0], line[4]));
+
+        other.addExit("North", new Room("elsewhere"));
+        assertEquals(4, pathfinder.distance(line[0], line[4]));
+        line[1].addExit("Portal_4", line[4]);
+        other.removeExit("North");
+        assertEquals(2, pathfinder.distance(line[0], line[4]));
+        line[1].removeExit("Portal_4");
+        assertEquals(4, pathfinder.distance(line[0], line[4]));
+    }
+}
@@ -0,0 +1,281 @@
+package map;
+
+import exceptions.ExitExistsException;
+import exceptions.NullRoomException;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Exits of a room: the cardinal slots and the other exits
+ */
+class RoomExitTest {
+    /**
+     * Cardinal exits are listed in direction order, then the others in
+     * the order they were added
+     */
+    @Test
+    void exitOrder() throws Exception {
+        Room room = new Room("hub");
+        Room[] targets = new Room[7];
+        for (int i = 0; i < targets.length; i++) {
+            targets[i] = new Room("target " + i);
+        }
+        room.addExit("Up", targets[0]);
+        room.addExit("West", targets[1]);
+        room.addExit("Ladder", targets[2]);
+        room.addExit("North", targets[3]);
+        room.addExit("East", targets[4]);
+        room.addExit("Down", targets[5]);
+        room.addExit("South", targets[6]);
+        assertEquals(Arrays.asList("North", "South", "East", "West", "Up",
+                "Ladder", "Down"), new ArrayList<>(room.getExits().keySet()));
+        assertEquals(7, room.getExits().size());
+        assertSame(targets[3], room.getExit(0));
+        assertSame(targets[6], room.getExit(1));
+        assertSame(targets[4], room.getExit(2));
+        assertSame(targets[1], room.getExit(3));
+        assertSame(targets[2], room.getExits().get("Ladder"));
+        assertEquals(Arrays.asList("Up", "Ladder", "Down"),
+                new ArrayList<>(room.getOtherExits().keySet()));
+    }
+
+    /**
+     * Exits can be looked up by label or direction, and removed
+     */
+    @Test
+    void getAndRemove() throws Exception {
+        Room room = new Room("room");
+        Room north = new Room("north");
+        Room up = new Room("up");
+        Map<String, Room> exits = room.getExits();
+        assertTrue(exits.isEmpty());
+        room.addExit("North", north);
+        room.addExit("Up", up);
+
+        // The view follows later changes
+        assertEquals(2, exits.size());
+        assertSame(north, room.getExit("North"));
+        assertSame(north, exits.get("North"));
+        assertTrue(exits.containsKey("Up"));
+        assertFalse(exits.containsKey("South"));
+        assertFalse(exits.containsKey(3));
+        assertNull(exits.get(null));
+        assertNull(room.getExit("south"));
+        assertNull(room.getExit(1));
+
+        room.removeExit("North");
+        room.removeExit("Up");
+        room.removeExit("Nowhere");
+        room.removeExit(null);
+        assertTrue(exits.isEmpty());
+        assertNull(room.getExit(0));
+        assertNull(room.getExit("Up"));
+        assertTrue(room.getOtherExits().isEmpty());
+
+        // A removed exit can be added again
+        room.addExit("North", up);
+        assertSame(up, room.getExit("North"));
+    }
+
+    /**
+     * Bad exits are refused
+     */
+    @Test
+    void badExits() throws Exception {
+        Room room = new Room("room");
+        Room other = new Room("other");
+        room.addExit("East", other);
+        room.addExit("Up", other);
+        assertThrows(ExitExistsException.class,
+                () -> room.addExit("East", other));
+        assertThrows(ExitExistsException.class,
+                () -> room.addExit("Up", room));
+        assertThrows(NullRoomException.class,
+                () -> room.addExit("West", null));
+        assertThrows(NullRoomException.class,
+                () -> room.addExit("Down", null));
+        assertThrows(NullPointerException.class,
+                () -> room.addExit(null, other));
+        assertThrows(NullPointerException.class, () -> room.getExit(null));
+        assertThrows(IndexOutOfBoundsException.class,
+                () -> room.getExit(4));
+        assertThrows(IndexOutOfBoundsException.class,
+                () -> room.getExit(-1));
+        assertThrows(UnsupportedOperationException.class,
+                () -> room.getExits().put("West", other));
+        assertEquals(2, room.getExits().size());
+
+        assertThrows(ExitExistsException.class,
+                () -> Room.makeExitPair(room, other, "East", "West"));
+        // Neither exit of a refused pair is added
+        assertNull(other.getExit("West"));
+        assertThrows(NullRoomException.class,
+                () -> Room.makeExitPair(room, null, "West", "East"));
+        assertThrows(NullPointerException.class,
+                () -> Room.makeExitPair(room, other, "West", null));
+    }
+
+    /**
+     * The exit version goes up when exits are added or removed
+     */
+    @Test
+    void exitVersion() throws Exception {
+        Room room = new Room("room");
+        Room other = new Room("other");
+        long version = Room.getExitVersion();
+        room.addExit("North", other);
+        assertTrue(Room.getExitVersion() > version);
+        version = Room.getExitVersion();
+        room.setDescription("changed");
+        room.removeExit("Nowhere");
+        // Other tests may change exits at the same time, so only check
+        // the version did not go backwards
+        assertTrue(Room.getExitVersion() >= version);
+        room.removeExit("North");
+        assertTrue(Room.getExitVersion() > version);
+    }
+
+    /**
+     * Readers never see an exit go to the wrong room, or a broken list,
+     * while exits are added and removed
+     */
+    @Test
+    void concurrentChanges() throws Exception {
+        Room room = new Room("room");
+        String[] labels = {"North", "South", "East", "West", "Up", "Down",
+                "Ladder", "Portal_7"};
+        Room[] targets = new Room[labels.length];
+        for (int i = 0; i < labels.length; i++) {
+            targets[i] = new Room(labels[i]);
+        }
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 2; t++) {
+            int first = t * labels.length / 2;
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                    for (int round = 0; round < 20000; round++) {
+                        for (int i = first; i < first + labels.length / 2;
+                             i++) {
+                            room.addExit(labels[i], targets[i]);
+                        }
+                        for (int i = first; i < first + labels.length / 2;
+                             i++) {
+                            room.removeExit(labels[i]);
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+        for (int t = 0; t < 2; t++) {
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                    while (!done.get()) {
+                        int count = 0;
+                        String previous = null;
+                        for (Map.Entry<String, Room> exit
+                                : room.getExits().entrySet()) {
+                            assertEquals(exit.getKey(),
+                                    exit.getValue().getDescription());
+                            assertFalse(exit.getKey().equals(previous));
+                            previous = exit.getKey();
+                            count++;
+                        }
+                        assertTrue(count <= labels.length);
+                        for (String label : labels) {
+                            Room target = room.getExit(label);
+                            assertTrue(target == null
+                                    || target.getDescription().equals(label));
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        threads.get(0).join();
+        threads.get(1).join();
+        done.set(true);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertTrue(room.getExits().isEmpty());
+    }
+
+    /**
+     * Code holding either room's lock sees both exits of a pair or
+     * neither
+     */
+    @Test
+    void exitPairsUnderLock() throws Exception {
+        Room room1 = new Room("one");
+        Room room2 = new Room("two");
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            try {
+                while (!done.get()) {
+                    boolean matched = room1.withLock(() ->
+                            (room1.getExit("East") == null)
+                                    == (room2.getExit("West") == null));
+                    assertTrue(matched);
+                    matched = room2.withLock(() ->
+                            (room1.getExit("East") == null)
+                                    == (room2.getExit("West") == null));
+                    assertTrue(matched);
+                }
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            }
+        });
+        reader.start();
+        try {
+            for (int round = 0; round < 20000; round++) {
+                Room.makeExitPair(room1, room2, "East", "West");
+                assertSame(room2, room1.getExit("East"));
+                assertSame(room1, room2.getExit("West"));
+                // Removed under both locks, so the pair goes together.
+                // The reader only ever holds one, so this can not deadlock.
+                synchronized (room1.lock()) {
+                    synchronized (room2.lock()) {
+                        room1.removeExit("East");
+                        room2.removeExit("West");
+                    }
+                }
+            }
+        } finally {
+            done.set(true);
+            reader.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package map;
+
+import things.Critter;
+import things.Explorer;
+import things.Thing;
+import things.Treasure;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Random maps for the tests, and a way to compare two maps
+ */
+final class TestMaps {
+    // Labels used for exits which are not cardinal
+    private static final String[] OTHER_LABELS =
+            {"Up", "Down", "Trapdoor", "Portal_7", "Ladder"};
+
+    /**
+     * Not instantiable
+     */
+    private TestMaps() {
+    }
+
+    /**
+     * Build a random map: a grid of rooms joined by exit pairs (with
+     * some missing), a few one way exits with other labels, treasure,
+     * critters, and an explorer in the start room
+     *
+     * @param random source of the layout
+     * @param width  rooms across
+     * @param height rooms down
+     * @return the start room (top left)
+     * @throws Exception if an exit can not be made (never)
+     */
+    static Room randomMap(Random random, int width, int height)
+            throws Exception {
+        Room[] rooms = new Room[width * height];
+        for (int i = 0; i < rooms.length; i++) {
+            // Includes text which needs more than one UTF-8 byte
+            rooms[i] = new Room("room " + i
+                    + (random.nextInt(4) == 0 ? " café ☃" : ""));
+        }
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                Room room = rooms[y * width + x];
+                // The first row and column are always joined, so every
+                // room stays reachable from the start
+                if (x + 1 < width && (y == 0 || random.nextInt(5) > 0)) {
+                    Room.makeExitPair(room, rooms[y * width + x + 1],
+                            "East", "West");
+                }
+                if (y + 1 < height && (x == 0 || random.nextInt(5) > 0)) {
+                    Room.makeExitPair(room, rooms[(y + 1) * width + x],
+                            "South", "North");
+                }
+            }
+        }
+        for (int i = 0; i < rooms.length / 8; i++) {
+            Room room = rooms[random.nextInt(rooms.length)];
+            String label = OTHER_LABELS[random.nextInt(OTHER_LABELS.length)];
+            if (room.getExit(label) == null) {
+                room.addExit(label, rooms[random.nextInt(rooms.length)]);
+            }
+        }
+        for (Room room : rooms) {
+            int things = random.nextInt(4);
+            for (int i = 0; i < things; i++) {
+                if (random.nextBoolean()) {
+                    room.enter(new Treasure("gold " + random.nextInt(5),
+                            random.nextInt(100) / 4.0));
+                } else {
+                    room.enter(new Critter("rat " + random.nextInt(5),
+                            "a rat", random.nextInt(50),
+                            random.nextInt(10)));
+                }
+            }
+        }
+        rooms[0].enter(new Explorer("Tester", "someone testing", 20));
+        return rooms[0];
+    }
+
+    /**
+     * Make one random change to a map: a new description, a new room, a
+     * removed exit, a moved thing, new treasure or a hurt critter
+     *
+     * @param random source of the change
+     * @param start  start room (the change is to a room reachable from it)
+     * @throws Exception if an exit can not be made (never)
+     */
+    static void randomChange(Random random, Room start) throws Exception {
+        List<Room> rooms = rooms(start);
+        Room room = rooms.get(random.nextInt(rooms.size()));
+        switch (random.nextInt(6)) {
+            case 0:
+                room.setDescription("changed " + random.nextInt(1000));
+                break;
+            case 1:
+                String label = "Door_" + random.nextInt(1000);
+                if (room.getExit(label) == null) {
+                    room.addExit(label, new Room("new " + label));
+                }
+                break;
+            case 2:
+                List<String> labels = new ArrayList<>(room.getExits().keySet());
+                if (!labels.isEmpty() && room != start) {
+                    room.removeExit(labels.get(random.nextInt(labels.size())));
+                }
+                break;
+            case 3:
+                List<Thing> things = room.getContents();
+                Room to = rooms.get(random.nextInt(rooms.size()));
+                if (!things.isEmpty()) {
+                    Thing thing = things.get(random.nextInt(things.size()));
+                    if (!(thing instanceof Explorer)) {
+                        Room.move(thing, room, to);
+                    }
+                }
+                break;
+            case 4:
+                room.enter(new Treasure("coin", random.nextInt(10)));
+                break;
+            default:
+                for (Critter critter : room.getContents(Critter.class)) {
+                    critter.takeDamage(1 + random.nextInt(3));
+                }
+                break;
+        }
+    }
+
+    /**
+     * Describe every room reachable from start, numbered breadth first
+     * following exits in label order, so that two maps with the same
+     * rooms, exits and contents have the same dump however they were
+     * built. Explorers are left out (loading takes them out of rooms).
+     *
+     * @param start start room
+     * @return the description
+     */
+    static String dump(Room start) {
+        List<Room> order = new ArrayList<>();
+        Map<Room, Integer> ids = new IdentityHashMap<>();
+        order.add(start);
+        ids.put(start, 0);
+        StringBuilder dump = new StringBuilder();
+        for (int id = 0; id < order.size(); id++) {
+            Room room = order.get(id);
+            dump.append(id).append(' ').append(room.getDescription())
+                    .append('\n');
+            for (Map.Entry<String, Room> exit
+                    : new TreeMap<>(room.getExits()).entrySet()) {
+                Integer target = ids.get(exit.getValue());
+                if (target == null) {
+                    target = order.size();
+                    ids.put(exit.getValue(), target);
+                    order.add(exit.getValue());
+                }
+                dump.append("  ").append(exit.getKey()).append(" -> ")
+                        .append(target).append('\n');
+            }
+            for (Thing thing : room.getContents()) {
+                if (!(thing instanceof Explorer)) {
+                    dump.append("  * ").append(thing.repr()).append('\n');
+                }
+            }
+        }
+        return dump.toString();
+    }
+
+    /**
+     * Every room reachable from start
+     *
+     * @param start start room
+     * @return the rooms in walk order
+     */
+    static List<Room> rooms(Room start) {
+        RoomIndex index = new RoomIndex(start);
+        index.walk();
+        List<Room> rooms = new ArrayList<>(index.size());
+        for (int id = 0; id < index.size(); id++) {
+            rooms.add(index.getRoom(id));
+        }
+        return rooms;
+    }
+}
@@ -0,0 +1,139 @@
+package utils;
+
+import org.junit.jupiter.api.Test;
+import things.Critter;
+import things.Explorer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Fights worked out in closed form, checked against playing them out
+ * hit by hit
+ */
+class CombatTest {
+    // Largest health tried
+    private static final int MAX_HEALTH = 40;
+    // Largest damage tried
+    private static final int MAX_DAMAGE = 12;
+
+    /**
+     * Play a fight out one hit at a time, as Explorer.fight and
+     * Critter.fight used to (health never goes below zero)
+     *
+     * @param attackerHealth health of the mob which hits first
+     * @param attackerDamage damage it does per hit
+     * @param defenderHealth health of the other mob
+     * @param defenderDamage damage it does per hit (not both zero)
+     * @return attacker health, defender health and number of hits
+     */
+    private static long[] playOut(int attackerHealth, int attackerDamage,
+                                  int defenderHealth, int defenderDamage) {
+        long hits = 0;
+        while (attackerHealth > 0 && defenderHealth > 0) {
+            defenderHealth = Math.max(defenderHealth - attackerDamage, 0);
+            hits++;
+            if (defenderHealth > 0) {
+                attackerHealth = Math.max(attackerHealth - defenderDamage, 0);
+                hits++;
+            }
+        }
+        return new long[]{attackerHealth, defenderHealth, hits};
+    }
+
+    /**
+     * The closed form gives the same healths and number of hits as the
+     * hit by hit loop, including when one mob does no damage
+     */
+    @Test
+    void closedFormMatchesLoop() {
+        for (int attackerHealth = 0; attackerHealth <= MAX_HEALTH;
+             attackerHealth++) {
+            for (int defenderHealth = 0; defenderHealth <= MAX_HEALTH;
+                 defenderHealth++) {
+                for (int attackerDamage = 0; attackerDamage <= MAX_DAMAGE;
+                     attackerDamage++) {
+                    for (int defenderDamage = 0;
+                         defenderDamage <= MAX_DAMAGE; defenderDamage++) {
+                        if (attackerDamage == 0 && defenderDamage == 0) {
+                            continue;
+                        }
+                        String message = attackerHealth + "/"
+                                + attackerDamage + " against "
+                                + defenderHealth + "/" + defenderDamage;
+                        long[] expected = playOut(attackerHealth,
+                                attackerDamage, defenderHealth,
+                                defenderDamage);
+                        Combat.Outcome outcome = Combat.resolve(
+                                attackerHealth, attackerDamage,
+                                defenderHealth, defenderDamage);
+                        assertEquals(expected[0], outcome.attackerHealth,
+                                message);
+                        assertEquals(expected[1], outcome.defenderHealth,
+                                message);
+                        assertEquals(expected[2], outcome.hits, message);
+                        assertEquals(expected[0] > 0,
+                                outcome.attackerWins(), message);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A fight between two mobs which can do no damage (which the loop
+     * never finished) changes nothing
+     */
+    @Test
+    void harmlessMobsDoNotFight() {
+        for (int health = 0; health <= MAX_HEALTH; health++) {
+            Combat.Outcome outcome = Combat.resolve(health, 0, 7, 0);
+            assertEquals(health, outcome.attackerHealth);
+            assertEquals(7, outcome.defenderHealth);
+            assertEquals(0, outcome.hits);
+        }
+    }
+
+    /**
+     * Large healths, where the loop takes many hits, still match
+     */
+    @Test
+    void largeHealthsMatchLoop() {
+        int[][] fights = {{100000, 1, 100000, 2}, {99999, 3, 100000, 3},
+                {1, 100000, 100000, 1}, {1000000, 0, 1000000, 7},
+                {1000000, 1, 3000000, 0}};
+        for (int[] fight : fights) {
+            long[] expected = playOut(fight[0], fight[1], fight[2],
+                    fight[3]);
+            Combat.Outcome outcome = Combat.resolve(fight[0], fight[1],
+                    fight[2], fight[3]);
+            assertEquals(expected[0], outcome.attackerHealth);
+            assertEquals(expected[1], outcome.defenderHealth);
+            assertEquals(expected[2], outcome.hits);
+        }
+    }
+
+    /**
+     * Mobs fighting through Combat.fight end with the loop's healths
+     */
+    @Test
+    void fightLeavesMobsAsTheLoopDid() {
+        for (int explorerHealth = 1; explorerHealth <= MAX_HEALTH;
+             explorerHealth++) {
+            for (int critterHealth = 1; critterHealth <= MAX_HEALTH;
+                 critterHealth++) {
+                Explorer explorer = new Explorer("explorer", "explorer",
+                        explorerHealth);
+                Critter critter = new Critter("critter", "critter", 1,
+                        critterHealth);
+                long[] expected = playOut(explorerHealth,
+                        explorer.getDamage(), critterHealth,
+                        critter.getDamage());
+                explorer.fight(critter);
+                String message = explorerHealth + " against "
+                        + critterHealth;
+                assertEquals(expected[0], explorer.getHealth(), message);
+                assertEquals(expected[1], critter.getHealth(), message);
+            }
+        }
+    }
+}